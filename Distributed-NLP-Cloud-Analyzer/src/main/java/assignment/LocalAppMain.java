@@ -5,11 +5,11 @@ import java.util.List;
 import assignment.messages.JobDoneMessage;
 import assignment.messages.NewJobMessage;
 import assignment.util.AwsConfig;
-import assignment.util.JsonUtils;
+import assignment.util.ComputeProvider;
+import assignment.messages.MessageCodec;
 import assignment.util.S3Utils;
 import assignment.util.SqsUtils;
 import software.amazon.awssdk.services.sqs.model.Message;
-import assignment.util.Ec2Utils;
 
 
 public class LocalAppMain {
@@ -38,14 +38,14 @@ public class LocalAppMain {
         String inputKey = "inputs/" + jobId + ".txt";
         String outputPrefix = "jobs/" + jobId + "/";
 
-        // Upload input file to S3
+        // Upload input file to S3 (or the local object store, with -Dstorage=local)
         System.out.println("Uploading input file to S3: s3://" + AwsConfig.S3_BUCKET + "/" + inputKey);
         S3Utils.uploadFile(AwsConfig.S3_BUCKET, inputKey, inputFile);
         System.out.println("Upload completed.");
 
-        // Ensure Manager instance is running
+        // Ensure Manager instance is running (on EC2 unless -Dcompute says otherwise)
         System.out.println("Ensuring Manager instance is running...");
-        Ec2Utils.ensureManagerRunning();
+        ComputeProvider.create().ensureManagerRunning();
 
 
         // Build the NewJobMessage
@@ -60,7 +60,7 @@ public class LocalAppMain {
         
        
         // Serialize message to JSON
-        String json = JsonUtils.toJson(msg);
+        String json = MessageCodec.encode(msg);
         System.out.println("NewJobMessage JSON:");
         System.out.println(json);
 
@@ -101,13 +101,12 @@ public class LocalAppMain {
             }
 
             for (Message m : messages) {
-                String body = m.body();
-
-                if (!body.contains("\"type\":\"JOB_DONE\"")) {
+                Object message = MessageCodec.decode(m.body());
+                if (!(message instanceof JobDoneMessage)) {
                     continue;
                 }
 
-                JobDoneMessage jobDone = JsonUtils.fromJson(body, JobDoneMessage.class);
+                JobDoneMessage jobDone = (JobDoneMessage) message;
 
                 if (!jobId.equals(jobDone.jobId)) {
                     continue;
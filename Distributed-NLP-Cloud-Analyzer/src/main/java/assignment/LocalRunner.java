@@ -0,0 +1,43 @@
+package assignment;
+
+import java.util.Arrays;
+
+import assignment.util.InMemoryTransport;
+import assignment.util.Log;
+import assignment.util.SqsUtils;
+
+/**
+ * Runs the local app, the manager and its workers together in this one JVM, offline:
+ * - queues in memory (InMemoryTransport)
+ * - objects as files under -Dstorage.dir (default /tmp/objects), see LocalObjectStore
+ * - workers on threads of this JVM (-Dcompute=inprocess), see InProcessComputeProvider
+ * Source documents in the input file can be file: URLs, so nothing needs the network.
+ *
+ * Takes the same arguments as LocalAppMain. The JVM exits once the summary is saved,
+ * so there is no manager left to terminate and a "terminate" argument is ignored.
+ *
+ *   java -cp app.jar assignment.LocalRunner input.txt summary.html 10
+ */
+public class LocalRunner {
+
+    public static void main(String[] args) {
+        // Before any of the components reads them
+        System.setProperty("storage", "local");
+        System.setProperty("compute", "inprocess");
+        SqsUtils.setTransport(new InMemoryTransport());
+
+        if (args.length > 3) {
+            System.out.println("Ignoring \"" + args[3] + "\": the manager stops with this JVM anyway");
+            args = Arrays.copyOf(args, 3);
+        }
+
+        Thread manager = new Thread(() -> ManagerMain.main(new String[0]), "manager");
+        manager.setDaemon(true);
+        manager.start();
+
+        LocalAppMain.main(args);
+
+        Log.flush();
+        System.exit(0);
+    }
+}
@@ -1,23 +1,45 @@
 package assignment;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
+import assignment.manager.Autoscaler;
+import assignment.manager.JobJournal;
+import assignment.manager.JobMetrics;
 import assignment.manager.JobState;
-import assignment.manager.JobTaskResult;
-import assignment.messages.AnalysisTaskMessage;
+import assignment.manager.JournalRecord;
+import assignment.manager.ManagerConfig;
+import assignment.manager.ShardStitcher;
+import assignment.manager.SummaryWriter;
+import assignment.manager.TaskFanOut;
+import assignment.messages.BundleDoneMessage;
 import assignment.messages.JobDoneMessage;
+import assignment.messages.MessageCodec;
 import assignment.messages.NewJobMessage;
 import assignment.messages.TaskDoneMessage;
 import assignment.util.AwsConfig;
+import assignment.util.CompressedInput;
+import assignment.util.Futures;
 import assignment.util.JsonUtils;
+import assignment.util.LatencyHistogram;
+import assignment.util.Log;
+import assignment.util.Metrics;
+import assignment.util.QueueConsumer;
+import assignment.util.ResultCache;
 import assignment.util.SqsUtils;
 import assignment.util.S3Utils;
-import assignment.util.Ec2Utils;
+import assignment.util.ComputeProvider;
 import software.amazon.awssdk.services.sqs.model.Message;
 
 /**
@@ -39,154 +61,462 @@ public class ManagerMain {
     // Thread pool for parallel job handling
     private final ExecutorService jobExecutor = Executors.newFixedThreadPool(10);
 
+    // Threads that send task batches to the workers queue, shared by all jobs
+    private final ExecutorService sendExecutor = Executors.newFixedThreadPool(ManagerConfig.FANOUT_SENDER_THREADS);
+
+    // Threads for HEAD requests and result cache lookups during fan-out, shared by all jobs
+    private final ExecutorService probeExecutor = Executors.newFixedThreadPool(ManagerConfig.PROBE_THREADS);
+
+    // Results of earlier jobs, or null when caching is off
+    private final ResultCache resultCache = ResultCache.create();
+
+    // Joins the outputs of sharded documents, then records them like any other TASK_DONE
+    private final ShardStitcher stitcher = new ShardStitcher(jobExecutor, resultCache, this::recordTaskDone);
+
+    // Sizes the worker fleet from the workers queue (-Dcompute=ec2|local)
+    private final Autoscaler autoscaler = new Autoscaler(ComputeProvider.create(), AwsConfig.QUEUE_MANAGER_TO_WORKER);
+
+    // Jobs and results written down for a restart; null when the journal is turned off
+    private final JobJournal journal = JobJournal.fromConfig();
+
+    // True while the journal is replayed at startup. Shard results read from it are
+    // handed to the stitcher once the replay shows which tasks are still open.
+    private volatile boolean replaying;
+    private final List<TaskDoneMessage> replayedShards = new ArrayList<>();
+
+    // Exported on /metrics, see registerMetrics
+    private final Metrics.Counter jobsReceived =
+            Metrics.counter("manager_jobs_received_total", "NEW_JOB messages accepted");
+    private final Metrics.Counter jobsFinished =
+            Metrics.counter("manager_jobs_finished_total", "Jobs whose JOB_DONE was sent");
+    private final Metrics.Counter tasksSucceeded =
+            Metrics.counter("manager_tasks_completed_total{result=\"success\"}", "Task results recorded, by result");
+    private final Metrics.Counter tasksFailed =
+            Metrics.counter("manager_tasks_completed_total{result=\"failed\"}", "Task results recorded, by result");
+    private final Metrics.Counter duplicateResults =
+            Metrics.counter("manager_duplicate_results_total", "TASK_DONEs ignored because the task already had a result");
+
+    // Stage latencies of every job since the manager started, see JobState.recordTimings
+    private final Map<String, LatencyHistogram> stageLatencies = new LinkedHashMap<>();
+
     public static void main(String[] args) {
         ManagerMain manager = new ManagerMain();
         manager.run();
     }
 
+    /**
+     * Start one long-poll consumer for NEW_JOB and several for TASK_DONE. Each message is
+     * dispatched as soon as it arrives, so a TASK_DONE never waits behind the other queue.
+     */
     private void run() {
-        System.out.println("Manager started, polling queues...");
-        
-        while (true) {
-            handleNewJobs();
-            handleTaskDone();
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException ignored) {
+        Log.info("Manager started with {} TASK_DONE consumers, polling queues...", ManagerConfig.TASK_DONE_CONSUMERS);
+
+        registerMetrics();
+        recover();
+        Metrics.serve(ManagerConfig.METRICS_PORT);
+        autoscaler.start();
+
+        Thread newJobConsumer = QueueConsumer.start("new-job-consumer",
+                AwsConfig.QUEUE_APP_TO_MANAGER, this::dispatch);
+
+        for (int i = 0; i < ManagerConfig.TASK_DONE_CONSUMERS; i++) {
+            QueueConsumer.start("task-done-consumer-" + i,
+                    AwsConfig.QUEUE_WORKER_TO_MANAGER, this::dispatch);
+        }
+
+        try {
+            newJobConsumer.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void registerMetrics() {
+        Metrics.gauge("manager_jobs_active", "Jobs accepted and not finished", jobs::size);
+        Metrics.gauge("manager_tasks_outstanding", "Tasks on the workers queue or in a worker, over all jobs", () -> {
+            long outstanding = 0;
+            for (JobState job : jobs.values()) {
+                // Until fan-out is done, only the lines queued so far count
+                int queued = job.totalTasks > 0 ? job.totalTasks : job.fanOutCheckpoint;
+                outstanding += Math.max(0, queued - job.completedTasks());
             }
+            return outstanding;
+        });
+        for (String stage : JobState.STAGES) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            stageLatencies.put(stage, histogram);
+            Metrics.summary("manager_task_stage_ms{stage=\"" + stage + "\"}",
+                    "Time per task in each stage over all jobs, ms", histogram);
         }
     }
 
     /**
-     * Poll the app-to-manager queue for NEW_JOB messages.
+     * Rebuild the jobs of the previous manager from the journal, then continue them: finish
+     * the ones that are complete and resume fan-out where it stopped. Tasks with a result are
+     * never queued again.
      */
-    private void handleNewJobs() {
-        List<Message> messages = SqsUtils.receiveMessages(
-                AwsConfig.QUEUE_APP_TO_MANAGER,
-                5,
-                5);
-
-        if (messages.isEmpty()) {
+    private void recover() {
+        if (journal == null) {
             return;
         }
 
-        for (Message m : messages) {
-            String body = m.body();
+        replaying = true;
+        try {
+            journal.recover(this::replay);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to recover the job journal", e);
+        } finally {
+            replaying = false;
+        }
 
-            if (!body.contains("\"type\":\"NEW_JOB\"")) {
-                continue;
+        for (TaskDoneMessage part : replayedShards) {
+            JobState job = jobs.get(part.jobId);
+            if (job != null && !job.isTaskDone(Integer.parseInt(part.taskId))) {
+                if (!Boolean.TRUE.equals(part.sharedParse)) {
+                    job.recordTimings(part.timings);
+                }
+                stitcher.record(part);
             }
+        }
+        replayedShards.clear();
 
-            NewJobMessage newJob = JsonUtils.fromJson(body, NewJobMessage.class);
-            System.out.println("Received NEW_JOB: " + newJob.jobId);
+        for (JobState job : jobs.values()) {
+            Log.info("Recovered job {}: {} tasks done, fan-out at line {}{}", job.jobId, job.completedTasks(),
+                    job.fanOutCheckpoint, job.totalTasks > 0 ? " of " + job.totalTasks : "");
 
-            // If shutdown was already requested by a previous job, ignore any new jobs.
-            if (shutdownRequested) {
-                System.out.println("Shutdown already requested, ignoring NEW_JOB " + newJob.jobId);
-                // Best behavior is to delete the msg so it doesn't keep reappearing
-                SqsUtils.deleteMessage(AwsConfig.QUEUE_APP_TO_MANAGER, m);
+            if (job.isComplete()) {
+                if (job.markFinished()) {
+                    finishJob(job);
+                }
                 continue;
             }
 
-            // If THIS job is the one that should trigger shutdown after everything is done:
-            if (newJob.terminateWhenDone) {
+            // The S3 mirror may miss the latest results, whose messages are gone from the queue
+            if (journal.recoveredFromS3()) {
+                job.totalTasks = 0;
+                job.fanOutCheckpoint = 0;
+            }
+            if (job.totalTasks == 0) {
+                startFanOut(job);
+            }
+        }
+
+        journal.startSnapshots(this::writeSnapshot);
+    }
+
+    private void replay(JournalRecord r) {
+        if (JournalRecord.JOB.equals(r.type)) {
+            // A snapshot may already hold the job whose JOB record follows it
+            jobs.putIfAbsent(r.jobId, newJobState(r.job));
+            if (r.job.terminateWhenDone) {
                 shutdownRequested = true;
-                System.out.println("Shutdown requested by job " + newJob.jobId + ". No more jobs will be accepted after this one.");
             }
+            return;
+        }
+
+        JobState job = jobs.get(r.jobId);
+        if (job == null) {
+            return;
+        }
 
-            JobState job = new JobState(
-                    newJob.jobId,
-                    newJob.inputBucket,
-                    newJob.inputKey,
-                    newJob.outputPrefix,
-                    newJob.nPerWorker,
-                    newJob.terminateWhenDone
-            );
-            jobs.put(newJob.jobId, job);
-
-            // Handle job in parallel
-            jobExecutor.submit(() -> {
-                try {
-                    createTasksForJob(job);
-                } catch (Exception e) {
-                    System.out.println("Failed to create tasks for job " + job.jobId + ": " + e.getMessage());
-                    e.printStackTrace();
+        switch (r.type) {
+            case JournalRecord.FANOUT:
+                job.fanOutCheckpoint = Math.max(job.fanOutCheckpoint, r.line);
+                if (r.totalTasks != null) {
+                    job.totalTasks = r.totalTasks;
                 }
-            });
+                break;
+            case JournalRecord.RESULT:
+                recordTaskDone(r.result);
+                break;
+            case JournalRecord.TASK:
+                TaskDoneMessage d = r.result;
+                job.recordResult(Integer.parseInt(d.taskId), d.analysisType, d.sourceUrl, d.success,
+                        d.resultBucket, d.resultKey, d.errorMessage, r.note);
+                break;
+            case JournalRecord.COUNTERS:
+                job.restoreCounters(r.cacheHits, r.cacheMisses, r.sentenceStats);
+                job.restoreLatencies(r.latencies);
+                break;
+            case JournalRecord.FINISHED:
+                jobs.remove(r.jobId);
+                break;
+            default:
+                Log.warn("Journal: unknown record type {}", r.type);
+        }
+    }
 
-            SqsUtils.deleteMessage(AwsConfig.QUEUE_APP_TO_MANAGER, m);
+    /**
+     * Every active job as records a replay turns back into the same JobState.
+     */
+    private void writeSnapshot(Consumer<JournalRecord> out) {
+        for (JobState job : jobs.values()) {
+            // No result of this job is recorded meanwhile, so its counters match its results
+            job.recordLock.writeLock().lock();
+            try {
+                writeSnapshot(job, out);
+            } finally {
+                job.recordLock.writeLock().unlock();
+            }
+        }
+    }
 
+    private void writeSnapshot(JobState job, Consumer<JournalRecord> out) {
+        JournalRecord jobRecord = new JournalRecord(JournalRecord.JOB, job.jobId);
+        jobRecord.job = new NewJobMessage(job.jobId, job.inputBucket, job.inputKey,
+                job.nPerWorker, job.outputPrefix, job.terminateWhenDone);
+        out.accept(jobRecord);
+
+        JournalRecord fanOut = new JournalRecord(JournalRecord.FANOUT, job.jobId);
+        fanOut.line = job.fanOutCheckpoint;
+        fanOut.totalTasks = job.totalTasks > 0 ? job.totalTasks : null;
+        out.accept(fanOut);
+
+        // Read before the results, and written after them so a replay restores them last
+        JournalRecord counters = new JournalRecord(JournalRecord.COUNTERS, job.jobId);
+        counters.cacheHits = job.cacheHits();
+        counters.cacheMisses = job.cacheMisses();
+        counters.sentenceStats = job.sentenceStats();
+        counters.latencies = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : job.stageLatencies().entrySet()) {
+            counters.latencies.put(e.getKey(), e.getValue().counts());
+        }
+
+        job.forEachResult(result -> {
+            JournalRecord task = new JournalRecord(JournalRecord.TASK, job.jobId);
+            task.result = new TaskDoneMessage(job.jobId, result.taskId, result.analysisType, result.sourceUrl,
+                    result.success, result.resultBucket, result.resultKey, result.errorMessage);
+            task.note = result.note;
+            out.accept(task);
+        });
+
+        out.accept(counters);
+
+        for (TaskDoneMessage part : stitcher.pendingParts(job.jobId)) {
+            JournalRecord shard = new JournalRecord(JournalRecord.RESULT, job.jobId);
+            shard.result = part;
+            out.accept(shard);
         }
     }
 
-    private void handleTaskDone() {
-        List<Message> messages = SqsUtils.receiveMessages(
-                AwsConfig.QUEUE_WORKER_TO_MANAGER,
-                5,
-                5
-        );
+    /**
+     * Route a message from either queue to its handler by message type.
+     */
+    private void dispatch(String queueUrl, Message m) {
+        Object message = MessageCodec.decode(m.body());
 
-        if (messages.isEmpty()) {
+        if (message instanceof BundleDoneMessage) {
+            BundleDoneMessage bundleDone = (BundleDoneMessage) message;
+            for (TaskDoneMessage done : bundleDone.results) {
+                recordTaskDone(done);
+            }
+            autoscaler.recordDone();
+            deletePayload(bundleDone);
+        } else if (message instanceof TaskDoneMessage) {
+            recordTaskDone((TaskDoneMessage) message);
+            autoscaler.recordDone();
+        } else if (message instanceof NewJobMessage) {
+            handleNewJob((NewJobMessage) message);
+        } else {
             return;
         }
 
-        for (Message m : messages) {
-            String body = m.body();
-
-            if (!body.contains("\"type\":\"TASK_DONE\"")) {
-                continue;
+        // Handled already, so the consumer goes on to the next message meanwhile;
+        // if the delete fails the message comes back, just like when handling throws
+        SqsUtils.deleteMessageAsync(queueUrl, m).whenComplete((v, e) -> {
+            if (e != null) {
+                Log.warn("Failed to delete message {} from {}: {}", m.messageId(), queueUrl,
+                        Futures.unwrap(e).getMessage());
             }
+        });
+    }
+
+    // A spilled bundle's tasks are not needed once its results are recorded (and journaled)
+    private void deletePayload(BundleDoneMessage bundleDone) {
+        if (bundleDone.payloadKey == null) {
+            return;
+        }
+        try {
+            S3Utils.deleteObject(bundleDone.payloadBucket, bundleDone.payloadKey);
+        } catch (Exception e) {
+            Log.warn("Failed to delete bundle payload {}: {}", bundleDone.payloadKey, e.getMessage());
+        }
+    }
 
-            TaskDoneMessage done = JsonUtils.fromJson(body, TaskDoneMessage.class);
+    private void handleNewJob(NewJobMessage newJob) {
+        Log.info("Received NEW_JOB: {}", newJob.jobId);
 
-            JobState job = jobs.get(done.jobId);
-            if (job == null) {
-                System.out.println("Received TASK_DONE for unknown jobId: " + done.jobId);
-                SqsUtils.deleteMessage(AwsConfig.QUEUE_WORKER_TO_MANAGER, m);
-                continue;
+        // If shutdown was already requested by a previous job, ignore any new jobs.
+        // The message is still deleted so it doesn't keep reappearing.
+        if (shutdownRequested) {
+            Log.warn("Shutdown already requested, ignoring NEW_JOB {}", newJob.jobId);
+            return;
+        }
+
+        // If THIS job is the one that should trigger shutdown after everything is done:
+        if (newJob.terminateWhenDone) {
+            shutdownRequested = true;
+            Log.info("Shutdown requested by job {}. No more jobs will be accepted after this one.", newJob.jobId);
+        }
+
+        JobState job = newJobState(newJob);
+        jobs.put(newJob.jobId, job);
+        jobsReceived.inc();
+        if (journal != null) {
+            journal.job(newJob);
+        }
+
+        startFanOut(job);
+    }
+
+    private static JobState newJobState(NewJobMessage newJob) {
+        return new JobState(
+                newJob.jobId,
+                newJob.inputBucket,
+                newJob.inputKey,
+                newJob.outputPrefix,
+                newJob.nPerWorker,
+                newJob.terminateWhenDone
+        );
+    }
+
+    private void startFanOut(JobState job) {
+        // Handle job in parallel
+        jobExecutor.submit(() -> {
+            try {
+                createTasksForJob(job);
+            } catch (Exception e) {
+                Log.error("Failed to create tasks for job {}: {}", job.jobId, e.getMessage(), e);
             }
+        });
+    }
+
+    private void recordTaskDone(TaskDoneMessage done) {
+        JobState job = jobs.get(done.jobId);
+        if (job == null) {
+            Log.warn("Received TASK_DONE for unknown jobId: {}", done.jobId);
+            return;
+        }
+
+        // A snapshot of the job waits for a result that is journaled but not applied yet,
+        // since the segment it was journaled to may be deleted once the snapshot is written
+        job.recordLock.readLock().lock();
+        try {
+            recordTaskDone(job, done);
+        } finally {
+            job.recordLock.readLock().unlock();
+        }
+    }
 
-            // Update job state
-            JobTaskResult result = new JobTaskResult(
-                    done.taskId,
-                    done.analysisType,
-                    done.sourceUrl,
-                    done.success,
-                    done.resultBucket,
-                    done.resultKey,
-                    done.errorMessage
-            );
+    private void recordTaskDone(JobState job, TaskDoneMessage done) {
+        // Journaled with the result, so a replay records the same latencies
+        if (done.timings != null && done.timings.recordedAt == null) {
+            done.timings.recordedAt = System.currentTimeMillis();
+        }
 
-            job.results.put(done.taskId, result);
-            job.completedTasks++;
+        // One byte range of a split document: wait for the other shards
+        if (done.shardCount != null) {
+            if (replaying) {
+                replayedShards.add(done);
+            } else if (!job.isTaskDone(Integer.parseInt(done.taskId))) {
+                // Journaled first, like a whole result below
+                if (journal != null) {
+                    journal.result(done);
+                }
+                // Each shard went through the stages on its own
+                if (!Boolean.TRUE.equals(done.sharedParse)) {
+                    job.recordTimings(done.timings);
+                    JobState.recordTimings(done.timings, stageLatencies);
+                }
+                stitcher.record(done);
+            }
+            return;
+        }
 
-            System.out.println("Job " + job.jobId + " task " + done.taskId +
-                    " done. success=" + done.success +
-                    " (" + job.completedTasks + "/" + job.totalTasks + ")");
+        // Sentences over the worker's parse budget are worth a note next to the task
+        String note = done.sentenceStats != null && done.sentenceStats.anyOverBudget()
+                ? done.sentenceStats.describe() : null;
 
-            SqsUtils.deleteMessage(AwsConfig.QUEUE_WORKER_TO_MANAGER, m);
+        // Journaled before it is applied: if the append fails, the message comes back and is
+        // handled again, rather than being ignored as a duplicate that was never written down.
+        // A result journaled twice by a race is harmless, a replay ignores the second one.
+        int taskId = Integer.parseInt(done.taskId);
+        if (!replaying && journal != null && !job.isTaskDone(taskId)) {
+            journal.result(done);
+        }
 
-            if (job.isComplete()) {
-                onJobComplete(job);
+        // Task ids are line indexes. Several consumer threads may record results of the
+        // same job at once, and a redelivered TASK_DONE is simply ignored.
+        boolean recorded = job.recordResult(
+                taskId,
+                done.analysisType,
+                done.sourceUrl,
+                done.success,
+                done.resultBucket,
+                done.resultKey,
+                done.errorMessage,
+                note
+        );
+
+        if (!recorded) {
+            if (!replaying) {
+                duplicateResults.inc();
             }
+            Log.info("Job {} task {} already done, ignoring duplicate TASK_DONE", job.jobId, done.taskId);
+            return;
+        }
+
+        if (done.cacheHit) {
+            job.recordCacheHit();
+        } else if (done.success) {
+            job.recordCacheMiss();
+        }
+        // Analyses parsed together share one parse's stats and timings
+        boolean counted = !Boolean.TRUE.equals(done.sharedParse);
+        if (counted) {
+            job.recordSentenceStats(done.sentenceStats);
+            job.recordTimings(done.timings);
+        }
+
+        if (replaying) {
+            return;
+        }
+        if (done.success) {
+            tasksSucceeded.inc();
+        } else {
+            tasksFailed.inc();
+        }
+        if (counted) {
+            JobState.recordTimings(done.timings, stageLatencies);
+        }
+
+        Log.info("Job {} task {} done. success={} ({}/{})",
+                job.jobId, done.taskId, done.success, job.completedTasks(), job.totalTasks);
+
+        if (job.isComplete() && job.markFinished()) {
+            finishJob(job);
         }
     }
 
 
     private void createTasksForJob(JobState job) {
-        System.out.println("Creating tasks for job: " + job.jobId);
+        Log.info("Creating tasks for job: {}", job.jobId);
+
+        long start = System.currentTimeMillis();
 
-        // Download the input file from S3 into a temp file
-        String localTempPath = "/tmp/" + job.jobId + ".txt";
-        S3Utils.downloadFile(
-                job.inputBucket,
-                job.inputKey,
-                localTempPath);
+        // Probes, bundles and sends the tasks while the file is still being read
+        TaskFanOut fanOut = new TaskFanOut(job, sendExecutor, probeExecutor, resultCache, stitcher, autoscaler, journal);
 
-        // Read file and parse lines
-        try (java.io.BufferedReader br = new java.io.BufferedReader(new java.io.FileReader(localTempPath))) {
+        // A recovered job continues after the lines it already queued
+        int resumeAt = job.fanOutCheckpoint;
+
+        // Read the input list straight from S3 (gzip or zstd if it is compressed), so the
+        // first tasks go out while the rest of it is still arriving
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                CompressedInput.decode(S3Utils.openDownloadStream(job.inputBucket, job.inputKey)),
+                StandardCharsets.UTF_8))) {
             String line;
             int index = 0;
+            boolean firstLogged = false;
 
             while ((line = br.readLine()) != null) {
                 line = line.trim();
@@ -195,51 +525,52 @@ public class ManagerMain {
 
                 String[] parts = line.split("\\t");
                 if (parts.length != 2) {
-                    System.out.println("Skipping invalid line: " + line);
+                    Log.warn("Skipping invalid line: {}", line);
                     continue;
                 }
 
                 String analysisType = parts[0].trim();
                 String sourceUrl = parts[1].trim();
 
-                String taskId = String.valueOf(index);
-
-                // Build AnalysisTaskMessage
-                AnalysisTaskMessage taskMsg = new AnalysisTaskMessage(
-                        job.jobId,
-                        taskId,
-                        analysisType,
-                        sourceUrl,
-                        job.inputBucket, 
-                        job.outputPrefix + "tasks/" 
-                );
-
-                // Convert to JSON
-                String json = assignment.util.JsonUtils.toJson(taskMsg);
-
-                // Send to manager-to-worker
-                assignment.util.SqsUtils.sendMessage(
-                        assignment.util.AwsConfig.QUEUE_MANAGER_TO_WORKER,
-                        json);
+                if (index >= resumeAt) {
+                    fanOut.add(index, analysisType, sourceUrl);
+                    if (!firstLogged && fanOut.firstSentAt() > 0) {
+                        Log.info("Job {}: first task on the queue after {} ms", job.jobId, fanOut.firstSentAt() - start);
+                        firstLogged = true;
+                    }
+                }
 
                 index++;
+
+                if (journal != null && index > resumeAt && index % ManagerConfig.FANOUT_CHECKPOINT_LINES == 0) {
+                    fanOut.checkpoint(index);
+                }
             }
 
+        fanOut.finish();
+
+        job.fanOutCheckpoint = index;
         job.totalTasks = index;
-        System.out.println("Job " + job.jobId + " has " + index + " tasks.");
+        if (journal != null) {
+            journal.fanOut(job.jobId, index, index);
+        }
+        Log.info("Job {} has {} tasks: {} sent in {} bundles ({} sharing a document with another task), "
+                        + "{} answered from the result cache, in {} ms.",
+                job.jobId, index, fanOut.queuedTasks(), fanOut.bundleCount(), fanOut.groupedTasks(), job.cacheHits(),
+                System.currentTimeMillis() - start);
 
         if (job.totalTasks == 0) {
-            System.out.println("No tasks created for job " + job.jobId + ", no workers needed.");
+            Log.info("No tasks created for job {}, no workers needed.", job.jobId);
             return;
         }
 
-        // Calculate the number of requires worker (before considering existing workers k)
-        int m = (job.totalTasks + job.nPerWorker - 1) / job.nPerWorker;
-        System.out.println("Job " + job.jobId + " requires m=" + m + " workers (before considering existing workers k).");
-
-        // If there are k active workers, it will create (m - k) new ones, capped at 19.
-        Ec2Utils.ensureWorkers(m);
+        int m = (fanOut.workUnits() + job.nPerWorker - 1) / job.nPerWorker;
+        Log.info("Job {} requires m={} workers (requested {}).", job.jobId, m, fanOut.requestedWorkers());
 
+        // Workers (or the result cache) may have finished every task before totalTasks was known
+        if (job.isComplete() && job.markFinished()) {
+            onJobComplete(job);
+        }
 
         } catch (Exception e) {
             throw new RuntimeException("Failed to create tasks for job " + job.jobId, e);
@@ -247,16 +578,30 @@ public class ManagerMain {
     }
 
 
+    /**
+     * Build the summary off the consumer thread, so TASK_DONEs of other jobs keep flowing.
+     */
+    private void finishJob(JobState job) {
+        jobExecutor.submit(() -> {
+            try {
+                onJobComplete(job);
+            } catch (Exception e) {
+                Log.error("Failed to finish job {}: {}", job.jobId, e.getMessage(), e);
+            }
+        });
+    }
+
     private void onJobComplete(JobState job) {
-        System.out.println("Job completed (all tasks done): " + job.jobId);
+        Log.info("Job completed (all tasks done): {}", job.jobId);
 
         String summaryBucket = AwsConfig.S3_BUCKET;
         String summaryKey = job.outputPrefix + "summary.html";
 
         // Build + upload HTML summary
         buildAndUploadSummaryHtml(job, summaryBucket, summaryKey);
+        uploadMetrics(job, summaryBucket, job.outputPrefix + "metrics.json");
 
-        boolean allOk = job.results.values().stream().allMatch(r -> r.success);
+        boolean allOk = job.failedTasks() == 0;
         boolean success = allOk;
         String errorMessage = allOk ? null : "Some tasks failed. See summary for details.";
 
@@ -268,103 +613,63 @@ public class ManagerMain {
                 errorMessage
         );
 
-        String json = JsonUtils.toJson(done);
-        System.out.println("Sending JOB_DONE for job " + job.jobId + " to queue: " +
-                AwsConfig.QUEUE_MANAGER_TO_APP);
+        String json = MessageCodec.encode(done);
+        Log.info("Sending JOB_DONE for job {} to queue: {}", job.jobId, AwsConfig.QUEUE_MANAGER_TO_APP);
         SqsUtils.sendMessage(AwsConfig.QUEUE_MANAGER_TO_APP, json);
 
         jobs.remove(job.jobId);
+        jobsFinished.inc();
+        stitcher.forgetJob(job.jobId);
+        if (journal != null) {
+            journal.finished(job.jobId);
+        }
 
         // If shutdown was requested (because some job had terminateWhenDone=true)
         // and there are NO more jobs left, we can safely terminate workers and exit.
         if (shutdownRequested && jobs.isEmpty()) {
-            System.out.println("All jobs completed and shutdown requested. Terminating all workers and exiting Manager.");
-            Ec2Utils.terminateAllWorkers();
+            Log.info("All jobs completed and shutdown requested. Terminating all workers and exiting Manager.");
+            autoscaler.shutdown();
             jobExecutor.shutdownNow();
+            sendExecutor.shutdownNow();
+            probeExecutor.shutdownNow();
             System.exit(0);
         }
     }
 
 
 
-    private void buildAndUploadSummaryHtml(JobState job, String summaryBucket, String summaryKey) {
-        System.out.println("Building summary HTML for job " + job.jobId);
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("<!DOCTYPE html>\n");
-        sb.append("<html><head><meta charset=\"UTF-8\"><title>Job Summary ")
-        .append(job.jobId)
-        .append("</title></head><body>\n");
-
-        sb.append("<h1>Job Summary: ").append(job.jobId).append("</h1>\n");
-        sb.append("<p>Total tasks: ").append(job.totalTasks).append("</p>\n");
-        sb.append("<p>Completed tasks: ").append(job.completedTasks).append("</p>\n");
-
-        sb.append("<table border=\"1\" cellpadding=\"4\" cellspacing=\"0\">\n");
-        sb.append("<tr>")
-        .append("<th>Task ID</th>")
-        .append("<th>Analysis Type</th>")
-        .append("<th>Source URL</th>")
-        .append("<th>Success</th>")
-        .append("<th>Result</th>")
-        .append("<th>Error</th>")
-        .append("</tr>\n");
-
-        java.util.List<JobTaskResult> rows = new java.util.ArrayList<>(job.results.values());
-        java.util.Collections.sort(rows, (a, b) -> {
-            try {
-                int ta = Integer.parseInt(a.taskId);
-                int tb = Integer.parseInt(b.taskId);
-                return Integer.compare(ta, tb);
-            } catch (NumberFormatException e) {
-                return a.taskId.compareTo(b.taskId);
-            }
-        });
-
-        String regionId = AwsConfig.REGION.id();
-
-        for (JobTaskResult r : rows) {
-            sb.append("<tr>");
-
-            sb.append("<td>").append(r.taskId).append("</td>");
-            sb.append("<td>").append(r.analysisType).append("</td>");
-            sb.append("<td>").append(escapeHtml(r.sourceUrl)).append("</td>");
-
-            sb.append("<td>").append(r.success ? "YES" : "NO").append("</td>");
-
-            if (r.success && r.resultBucket != null && r.resultKey != null) {
-                String url = "https://" + r.resultBucket + ".s3." + regionId + ".amazonaws.com/" + r.resultKey;
-                sb.append("<td><a href=\"").append(url).append("\">View result</a></td>");
-            } else {
-                sb.append("<td>-</td>");
-            }
-
-            sb.append("<td>").append(r.errorMessage == null ? "" : escapeHtml(r.errorMessage)).append("</td>");
-
-            sb.append("</tr>\n");
+    /**
+     * Upload the job's counters and stage latencies as JSON, and log the latencies.
+     */
+    private void uploadMetrics(JobState job, String bucket, String key) {
+        JobMetrics metrics = JobMetrics.of(job);
+        for (Map.Entry<String, JobMetrics.Stage> e : metrics.stages.entrySet()) {
+            JobMetrics.Stage s = e.getValue();
+            Log.info("Job {} {} latency: p50={}ms p95={}ms p99={}ms max={}ms ({} tasks)",
+                    job.jobId, e.getKey(), s.p50, s.p95, s.p99, s.max, s.count);
+        }
+        try {
+            S3Utils.uploadString(bucket, key, JsonUtils.toJson(metrics));
+        } catch (Exception e) {
+            // The summary has the same numbers; don't fail the job over this file
+            Log.warn("Failed to upload metrics for job {}: {}", job.jobId, e.getMessage());
         }
+    }
 
-        sb.append("</table>\n");
-        sb.append("</body></html>\n");
+    /**
+     * Stream the summary straight into S3, in task order, without building it in memory.
+     */
+    private void buildAndUploadSummaryHtml(JobState job, String summaryBucket, String summaryKey) {
+        Log.info("Building summary HTML for job {}", job.jobId);
 
-        String tmpPath = "/tmp/summary-" + job.jobId + ".html";
-        try (java.io.FileOutputStream out = new java.io.FileOutputStream(tmpPath)) {
-            out.write(sb.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        SummaryWriter writer = new SummaryWriter(job, summaryBucket, ManagerConfig.SUMMARY_PAGE_ROWS);
+        try {
+            writer.write(summaryKey, key -> S3Utils.openUploadStream(summaryBucket, key, "text/html; charset=UTF-8"));
         } catch (Exception e) {
-            throw new RuntimeException("Failed to write local summary HTML for job " + job.jobId, e);
+            throw new RuntimeException("Failed to upload summary HTML for job " + job.jobId, e);
         }
 
-        S3Utils.uploadFile(summaryBucket, summaryKey, tmpPath);
-        System.out.println("Summary HTML uploaded to s3://" + summaryBucket + "/" + summaryKey);
+        Log.info("Summary HTML uploaded to s3://{}/{}", summaryBucket, summaryKey);
     }
 
-    private String escapeHtml(String s) {
-    if (s == null) return "";
-    return s
-            .replace("&", "&amp;")
-            .replace("<", "&lt;")
-            .replace(">", "&gt;")
-            .replace("\"", "&quot;");
-}
-
 }
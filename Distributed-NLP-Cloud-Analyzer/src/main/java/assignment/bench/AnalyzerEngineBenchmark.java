@@ -0,0 +1,163 @@
+package assignment.bench;
+
+import assignment.worker.Analyzer;
+import assignment.worker.Analyzers;
+import assignment.worker.SentenceContext;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the fast engines with the PCFG engine on the same sentences:
+ * POS (pcfg vs tagger) and DEPENDENCY (pcfg vs nndep).
+ * Reports sentences/sec of each engine and how often their outputs agree:
+ * per token for POS, per dependency (labeled and unlabeled) for DEPENDENCY.
+ *
+ * Needs the CoreNLP models jar on the classpath for the tagger and nndep models.
+ *
+ * Usage: java -cp app.jar assignment.bench.AnalyzerEngineBenchmark [inputFile]
+ */
+public class AnalyzerEngineBenchmark {
+
+    private static final String[] SAMPLE_SENTENCES = {
+            "The quick brown fox jumps over the lazy dog .",
+            "Distributed systems coordinate work between many independent machines .",
+            "The manager splits every input file into tasks and sends them to the workers through a queue .",
+            "Each worker downloads a document , parses every sentence with the Stanford parser , and uploads the result to S3 .",
+            "When all tasks of a job are done , the manager builds an HTML summary and notifies the local application , "
+                    + "which downloads the summary and writes it to the requested output file ."
+    };
+
+    public static void main(String[] args) throws Exception {
+        // Measure the engines, not the sentence cache
+        if (System.getProperty("worker.parseCacheMb") == null) {
+            System.setProperty("worker.parseCacheMb", "0");
+        }
+
+        List<String[]> sentences = new ArrayList<>();
+        if (args.length > 0) {
+            for (String line : Files.readAllLines(Path.of(args[0]), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    sentences.add(line.split("\\s+"));
+                }
+            }
+        } else {
+            for (int i = 0; i < 20; i++) {
+                for (String s : SAMPLE_SENTENCES) {
+                    sentences.add(s.split("\\s+"));
+                }
+            }
+        }
+        System.out.println("Benchmark: sentences=" + sentences.size());
+
+        compare("POS", "tagger", sentences);
+        compare("DEPENDENCY", "nndep", sentences);
+    }
+
+    private static void compare(String analysisType, String fastEngine, List<String[]> sentences) {
+        Analyzer pcfg = Analyzers.forEngine(analysisType, "pcfg");
+        Analyzer fast = Analyzers.forEngine(analysisType, fastEngine);
+
+        // Warm up: loads the models and the JIT
+        for (int i = 0; i < Math.min(10, sentences.size()); i++) {
+            run(pcfg, sentences.get(i));
+            run(fast, sentences.get(i));
+        }
+
+        List<String> pcfgOut = new ArrayList<>();
+        long start = System.nanoTime();
+        for (String[] tokens : sentences) {
+            pcfgOut.add(run(pcfg, tokens));
+        }
+        double pcfgSeconds = (System.nanoTime() - start) / 1e9;
+
+        List<String> fastOut = new ArrayList<>();
+        start = System.nanoTime();
+        for (String[] tokens : sentences) {
+            fastOut.add(run(fast, tokens));
+        }
+        double fastSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%s pcfg: %.1f sentences/sec%n", analysisType, sentences.size() / pcfgSeconds);
+        System.out.printf("%s %s: %.1f sentences/sec (%.1fx)%n", analysisType, fastEngine,
+                sentences.size() / fastSeconds, pcfgSeconds / fastSeconds);
+
+        if ("POS".equals(analysisType)) {
+            reportPosAgreement(pcfgOut, fastOut);
+        } else {
+            reportDependencyAgreement(pcfgOut, fastOut);
+        }
+    }
+
+    private static String run(Analyzer analyzer, String[] tokens) {
+        StringWriter text = new StringWriter();
+        try (PrintWriter out = new PrintWriter(text)) {
+            analyzer.write(new SentenceContext(tokens), out);
+        }
+        return text.toString();
+    }
+
+    // Outputs are "word/TAG word/TAG ..." over the same tokens, so compare position by position
+    private static void reportPosAgreement(List<String> expected, List<String> actual) {
+        long same = 0;
+        long total = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            String[] e = expected.get(i).trim().split(" ");
+            String[] a = actual.get(i).trim().split(" ");
+            total += e.length;
+            for (int t = 0; t < Math.min(e.length, a.length); t++) {
+                if (e[t].equals(a[t])) {
+                    same++;
+                }
+            }
+        }
+        System.out.printf("POS agreement: %.2f%% of %d tokens%n", 100.0 * same / total, total);
+    }
+
+    // Outputs are one "rel(gov-i, dep-j)" per line; unlabeled agreement ignores rel
+    private static void reportDependencyAgreement(List<String> expected, List<String> actual) {
+        long labeled = 0;
+        long unlabeled = 0;
+        long total = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            List<String> e = lines(expected.get(i));
+            Set<String> a = new HashSet<>(lines(actual.get(i)));
+            Set<String> aArcs = new HashSet<>();
+            for (String dep : a) {
+                aArcs.add(arc(dep));
+            }
+
+            total += e.size();
+            for (String dep : e) {
+                if (a.contains(dep)) {
+                    labeled++;
+                }
+                if (aArcs.contains(arc(dep))) {
+                    unlabeled++;
+                }
+            }
+        }
+        System.out.printf("DEPENDENCY agreement: labeled %.2f%%, unlabeled %.2f%% of %d dependencies%n",
+                100.0 * labeled / total, 100.0 * unlabeled / total, total);
+    }
+
+    private static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split("\\R")));
+        lines.removeIf(String::isEmpty);
+        return lines;
+    }
+
+    private static String arc(String dependency) {
+        int paren = dependency.indexOf('(');
+        return paren < 0 ? dependency : dependency.substring(paren);
+    }
+}
@@ -0,0 +1,330 @@
+package assignment.bench;
+
+import assignment.manager.JobState;
+import assignment.manager.ManagerConfig;
+import assignment.manager.SummaryWriter;
+import assignment.messages.AnalysisTaskMessage;
+import assignment.messages.BundleDoneMessage;
+import assignment.messages.JobDoneMessage;
+import assignment.messages.MessageCodec;
+import assignment.messages.NewJobMessage;
+import assignment.messages.TaskBundleMessage;
+import assignment.messages.TaskDoneMessage;
+import assignment.util.JsonUtils;
+import assignment.worker.WorkerMain;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the worker and manager hot paths with fixed inputs and writes every score to a JSON
+ * file, so runs on different commits or instance types can be compared:
+ *   analysis - runAnalysis for each analysis type on short, median and long sentences
+ *   messages - encode / decode of every message class, with JsonUtils and with MessageCodec
+ *   jobstate - JobState result ingestion from one and from all cores
+ *   summary  - the HTML summary of 1k, 100k and 1M results, written to nowhere
+ *
+ * Each benchmark runs bench.warmup (2) untimed and bench.iterations (5) timed iterations;
+ * the score is the mean throughput of the timed ones, with min and max next to it.
+ *
+ * Usage: java -cp app.jar assignment.bench.BenchmarkSuite [outputFile] [suite,suite,...]
+ */
+public class BenchmarkSuite {
+
+    /**
+     * One benchmark with one set of parameters.
+     */
+    public static class Result {
+        public String benchmark;
+        public Map<String, String> params;
+        public String unit;
+        public double score;
+        public double min;
+        public double max;
+        public double[] samples;
+    }
+
+    /**
+     * Everything one run wrote.
+     */
+    public static class Report {
+        public String startedAt;
+        public String javaVersion;
+        public int cores;
+        public long maxHeapMb;
+        public List<Result> results = new ArrayList<>();
+    }
+
+    /**
+     * One timed iteration; returns how many operations it did.
+     */
+    private interface Iteration {
+        long run() throws Exception;
+    }
+
+    private static final String[] ANALYSIS_TYPES = {"POS", "CONSTITUENCY", "DEPENDENCY"};
+
+    private static final String[] WORDS = {
+            "the", "manager", "splits", "every", "input", "file", "into", "tasks", "and", "sends",
+            "them", "to", "workers", "through", "a", "queue", "while", "each", "worker", "parses",
+            "documents", "with", "Stanford", "parser", "before", "uploading", "results"
+    };
+
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 2);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+
+    private static final Report report = new Report();
+
+    public static void main(String[] args) throws Exception {
+        // Measure the parsers, not the sentence cache
+        if (System.getProperty("worker.parseCacheMb") == null) {
+            System.setProperty("worker.parseCacheMb", "0");
+        }
+
+        String outputFile = args.length > 0 ? args[0] : "bench-results.json";
+        List<String> suites = args.length > 1
+                ? Arrays.asList(args[1].split(","))
+                : List.of("analysis", "messages", "jobstate", "summary");
+
+        report.startedAt = Instant.now().toString();
+        report.javaVersion = System.getProperty("java.version");
+        report.cores = Runtime.getRuntime().availableProcessors();
+        report.maxHeapMb = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+
+        System.out.println("Benchmark suites: " + suites + " warmup=" + WARMUP + " iterations=" + ITERATIONS);
+
+        for (String suite : suites) {
+            try {
+                switch (suite) {
+                    case "analysis": analysis(); break;
+                    case "messages": messages(); break;
+                    case "jobstate": jobState(); break;
+                    case "summary": summary(); break;
+                    default: System.out.println("Unknown suite: " + suite);
+                }
+            } catch (Exception e) {
+                // e.g. no parser models on the classpath; the other suites still run
+                System.out.println("Suite " + suite + " failed: " + e);
+            }
+        }
+
+        Files.writeString(Path.of(outputFile), JsonUtils.toJson(report), StandardCharsets.UTF_8);
+        System.out.println("Wrote " + report.results.size() + " results to " + outputFile);
+    }
+
+    private static void analysis() throws Exception {
+        // Sentence lengths around the short end, the median and the long tail of typical input
+        Map<String, Integer> lengths = new LinkedHashMap<>();
+        lengths.put("short", 6);
+        lengths.put("median", 22);
+        lengths.put("long", 60);
+
+        for (Map.Entry<String, Integer> length : lengths.entrySet()) {
+            int sentences = 20;
+            Path input = Files.createTempFile("bench-" + length.getKey(), ".txt");
+            Path output = Files.createTempFile("bench-output", ".txt");
+            StringBuilder text = new StringBuilder();
+            for (int s = 0; s < sentences; s++) {
+                text.append(sentence(s, length.getValue())).append('\n');
+            }
+            Files.writeString(input, text, StandardCharsets.UTF_8);
+
+            for (String type : ANALYSIS_TYPES) {
+                measure("analysis", params("type", type, "sentences", length.getKey()), "sentences/s", () -> {
+                    WorkerMain.runAnalysis(type, input.toString(), output.toString());
+                    return sentences;
+                });
+            }
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static void messages() throws Exception {
+        List<AnalysisTaskMessage> tasks = new ArrayList<>();
+        List<TaskDoneMessage> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String url = "https://www.gutenberg.org/files/" + (1000 + i) + "/" + (1000 + i) + "-0.txt";
+            String type = ANALYSIS_TYPES[i % ANALYSIS_TYPES.length];
+            tasks.add(new AnalysisTaskMessage(String.valueOf(i), type, url));
+            results.add(taskDone(i, type, url));
+        }
+
+        Map<String, Object> messages = new LinkedHashMap<>();
+        messages.put("NewJobMessage", new NewJobMessage("bench-job", "bench-bucket",
+                "inputs/bench-job/input.txt", 10, "jobs/bench-job/", false));
+        messages.put("AnalysisTaskMessage", new AnalysisTaskMessage("bench-job", "7", "POS",
+                "https://www.gutenberg.org/files/1007/1007-0.txt", "bench-bucket", "jobs/bench-job/tasks/"));
+        messages.put("TaskBundleMessage", new TaskBundleMessage("bench-job", "0", "bench-bucket",
+                "jobs/bench-job/tasks/", tasks));
+        messages.put("TaskDoneMessage", results.get(7));
+        messages.put("BundleDoneMessage", new BundleDoneMessage("bench-job", "0", results));
+        messages.put("JobDoneMessage", new JobDoneMessage("bench-job", true, "bench-bucket",
+                "jobs/bench-job/summary.html", null));
+
+        int batch = 10_000;
+        for (Map.Entry<String, Object> m : messages.entrySet()) {
+            Object message = m.getValue();
+            Class<?> messageClass = message.getClass();
+            String json = JsonUtils.toJson(message);
+            String compact = MessageCodec.encode(message);
+
+            measure("messages", params("message", m.getKey(), "codec", "json", "op", "encode"), "messages/s", () -> {
+                for (int i = 0; i < batch; i++) {
+                    JsonUtils.toJson(message);
+                }
+                return batch;
+            });
+            measure("messages", params("message", m.getKey(), "codec", "json", "op", "decode"), "messages/s", () -> {
+                for (int i = 0; i < batch; i++) {
+                    JsonUtils.fromJson(json, messageClass);
+                }
+                return batch;
+            });
+            measure("messages", params("message", m.getKey(), "codec", "compact", "op", "encode"), "messages/s", () -> {
+                for (int i = 0; i < batch; i++) {
+                    MessageCodec.encode(message);
+                }
+                return batch;
+            });
+            measure("messages", params("message", m.getKey(), "codec", "compact", "op", "decode"), "messages/s", () -> {
+                for (int i = 0; i < batch; i++) {
+                    MessageCodec.decode(compact);
+                }
+                return batch;
+            });
+        }
+    }
+
+    private static void jobState() throws Exception {
+        int tasks = 1_000_000;
+        String[] sourceUrls = sourceUrls(tasks);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : cores > 1 ? new int[] {1, cores} : new int[] {1}) {
+            measure("jobstate", params("tasks", String.valueOf(tasks), "threads", String.valueOf(threads)),
+                    "results/s", () -> {
+                        JobState job = newJob(tasks);
+                        List<Thread> workers = new ArrayList<>();
+                        for (int t = 0; t < threads; t++) {
+                            int first = t;
+                            Thread worker = new Thread(() -> {
+                                for (int i = first; i < tasks; i += threads) {
+                                    record(job, sourceUrls, i);
+                                }
+                            });
+                            worker.start();
+                            workers.add(worker);
+                        }
+                        for (Thread worker : workers) {
+                            worker.join();
+                        }
+                        if (job.completedTasks() != tasks) {
+                            throw new IllegalStateException("Lost results: " + job.completedTasks() + "/" + tasks);
+                        }
+                        return tasks;
+                    });
+        }
+    }
+
+    private static void summary() throws Exception {
+        for (int rows : new int[] {1_000, 100_000, 1_000_000}) {
+            String[] sourceUrls = sourceUrls(rows);
+            JobState job = newJob(rows);
+            for (int i = 0; i < rows; i++) {
+                record(job, sourceUrls, i);
+            }
+
+            // Upload stubbed out: the pages are rendered and thrown away
+            SummaryWriter writer = new SummaryWriter(job, "bench-bucket", ManagerConfig.SUMMARY_PAGE_ROWS);
+            measure("summary", params("rows", String.valueOf(rows)), "rows/s", () -> {
+                writer.write("jobs/bench-job/summary.html", key -> OutputStream.nullOutputStream());
+                return rows;
+            });
+        }
+    }
+
+    private static void measure(String benchmark, Map<String, String> params, String unit, Iteration iteration)
+            throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            iteration.run();
+        }
+
+        double[] samples = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            long ops = iteration.run();
+            samples[i] = ops / ((System.nanoTime() - start) / 1e9);
+        }
+
+        Result r = new Result();
+        r.benchmark = benchmark;
+        r.params = params;
+        r.unit = unit;
+        r.samples = samples;
+        r.score = Arrays.stream(samples).average().orElse(0);
+        r.min = Arrays.stream(samples).min().orElse(0);
+        r.max = Arrays.stream(samples).max().orElse(0);
+        report.results.add(r);
+
+        System.out.printf("%s %s: %.1f %s (min %.1f, max %.1f)%n", benchmark, params, r.score, unit, r.min, r.max);
+    }
+
+    private static Map<String, String> params(String... keysAndValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static String sentence(int seed, int words) {
+        StringBuilder s = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            s.append(WORDS[(seed * 7 + w * 3) % WORDS.length]).append(' ');
+        }
+        return s.append('.').toString();
+    }
+
+    private static String[] sourceUrls(int tasks) {
+        String[] sourceUrls = new String[tasks];
+        for (int i = 0; i < tasks; i++) {
+            sourceUrls[i] = "https://www.example.com/documents/" + i + ".txt";
+        }
+        return sourceUrls;
+    }
+
+    private static JobState newJob(int tasks) {
+        JobState job = new JobState("bench-job", "bench-bucket", "inputs/bench.txt", "jobs/bench-job/", 100, false);
+        job.totalTasks = tasks;
+        return job;
+    }
+
+    private static TaskDoneMessage taskDone(int i, String type, String url) {
+        return new TaskDoneMessage("bench-job", String.valueOf(i), type, url, true,
+                "bench-bucket", "jobs/bench-job/tasks/" + i + "-" + type.toLowerCase() + ".txt", null);
+    }
+
+    // Same mix as JobStateIngestBenchmark: one task in 50 fails
+    private static void record(JobState job, String[] sourceUrls, int i) {
+        String type = ANALYSIS_TYPES[i % ANALYSIS_TYPES.length];
+        boolean success = i % 50 != 0;
+        job.recordResult(
+                i,
+                type,
+                sourceUrls[i],
+                success,
+                success ? "bench-bucket" : null,
+                success ? "jobs/bench-job/tasks/" + i + "-" + type.toLowerCase() + ".txt" : null,
+                success ? null : "Failed to download"
+        );
+    }
+}
@@ -0,0 +1,111 @@
+package assignment.bench;
+
+import assignment.manager.JobState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how fast JobState ingests task completions from several threads, and how much
+ * heap it needs per task. Every run also replays a share of the completions as duplicate
+ * TASK_DONEs, which must be ignored.
+ *
+ * Usage: java -cp app.jar assignment.bench.JobStateIngestBenchmark [tasks] [duplicatePercent]
+ */
+public class JobStateIngestBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    private static final String[] TYPES = {"POS", "CONSTITUENCY", "DEPENDENCY"};
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int duplicatePercent = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        // Built up front so the runs measure JobState only, not string building
+        String[] sourceUrls = new String[tasks];
+        for (int i = 0; i < tasks; i++) {
+            sourceUrls[i] = "https://www.example.com/documents/" + i + ".txt";
+        }
+
+        System.out.println("Benchmark: tasks=" + tasks + " duplicates=" + duplicatePercent + "%");
+
+        // Warm up
+        runOnce(sourceUrls, Math.min(tasks, 100_000), 2, duplicatePercent);
+
+        for (int threads : THREAD_COUNTS) {
+            long heapBefore = usedHeap();
+            long start = System.nanoTime();
+
+            JobState job = runOnce(sourceUrls, tasks, threads, duplicatePercent);
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long bytesPerTask = (usedHeap() - heapBefore) / tasks;
+
+            if (job.completedTasks() != tasks || !job.isComplete()) {
+                throw new IllegalStateException("Lost completions: " + job.completedTasks() + "/" + tasks);
+            }
+
+            System.out.printf("threads=%d completions/sec=%.0f duplicatesIgnored=%d bytes/task=%d%n",
+                    threads, (tasks + job.duplicateResults()) / seconds, job.duplicateResults(), bytesPerTask);
+        }
+    }
+
+    private static JobState runOnce(String[] sourceUrls, int tasks, int threads, int duplicatePercent)
+            throws InterruptedException {
+        JobState job = new JobState("bench-job", "bench-bucket", "inputs/bench.txt", "jobs/bench-job/", 100, false);
+        job.totalTasks = tasks;
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // Thread t records tasks t, t + threads, ... like interleaved TASK_DONE consumers
+                for (int i = first; i < tasks; i += threads) {
+                    ingest(job, sourceUrls, i);
+                    if (i % 100 < duplicatePercent) {
+                        ingest(job, sourceUrls, i);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return job;
+    }
+
+    private static void ingest(JobState job, String[] sourceUrls, int i) {
+        String type = TYPES[i % TYPES.length];
+        boolean success = i % 50 != 0;
+        job.recordResult(
+                i,
+                type,
+                sourceUrls[i],
+                success,
+                success ? "bench-bucket" : null,
+                success ? "jobs/bench-job/tasks/" + i + "-" + type.toLowerCase() + ".txt" : null,
+                success ? null : "Failed to download"
+        );
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,86 @@
+package assignment.bench;
+
+import assignment.manager.JobState;
+import assignment.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the manager's TASK_DONE ingestion rate (JobState.recordResult plus the
+ * per-task progress line) with the old synchronized System.out.println and with Log,
+ * from as many threads as the manager has TASK_DONE consumers. Output goes to
+ * /dev/null through an autoflushing PrintStream, like a console.
+ *
+ * The Log run includes writing out everything it queued, and reports how many events
+ * were dropped because its ring was full.
+ *
+ * Usage: java -cp app.jar assignment.bench.LoggingBenchmark [tasks] [threads]
+ */
+public class LoggingBenchmark {
+
+    private interface Sink {
+        void taskDone(JobState job, String taskId, boolean success);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new BufferedOutputStream(new FileOutputStream("/dev/null"), 8192), true));
+
+        Sink println = (job, taskId, success) -> System.out.println("Job " + job.jobId + " task " + taskId +
+                " done. success=" + success +
+                " (" + job.completedTasks() + "/" + job.totalTasks + ")");
+        Sink log = (job, taskId, success) -> Log.info("Job {} task {} done. success={} ({}/{})",
+                job.jobId, taskId, success, job.completedTasks(), job.totalTasks);
+
+        // Warm up
+        run(println, Math.min(tasks, 100_000), threads);
+        run(log, Math.min(tasks, 100_000), threads);
+        Log.flush();
+
+        double before = run(println, tasks, threads);
+        long droppedBefore = Log.dropped();
+        double after = run(log, tasks, threads);
+        long dropped = Log.dropped() - droppedBefore;
+
+        System.setOut(console);
+        System.out.println("Benchmark: tasks=" + tasks + " threads=" + threads);
+        System.out.printf("System.out.println: %.0f TASK_DONE/sec%n", before);
+        System.out.printf("Log:                %.0f TASK_DONE/sec (%.1fx), %d events dropped%n",
+                after, after / before, dropped);
+    }
+
+    // TASK_DONEs per second, including writing out whatever Log queued
+    private static double run(Sink sink, int tasks, int threads) throws InterruptedException {
+        JobState job = new JobState("bench-job", "bench-bucket", "inputs/bench.txt", "jobs/bench-job/", 100, false);
+        job.totalTasks = tasks;
+
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread worker = new Thread(() -> {
+                for (int i = first; i < tasks; i += threads) {
+                    boolean success = i % 50 != 0;
+                    String taskId = String.valueOf(i);
+                    job.recordResult(i, "POS", "https://www.example.com/documents/" + i + ".txt", success,
+                            "bench-bucket", "jobs/bench-job/tasks/" + i + "-pos.txt", success ? null : "Failed");
+                    sink.taskDone(job, taskId, success);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Log.flush();
+        return tasks / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,97 @@
+package assignment.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import assignment.messages.AnalysisTaskMessage;
+import assignment.messages.BundleDoneMessage;
+import assignment.messages.MessageCodec;
+import assignment.messages.TaskBundleMessage;
+import assignment.messages.TaskDoneMessage;
+import assignment.util.JsonUtils;
+
+/**
+ * Compares the plain JSON message path (search the body for each type, then parse it)
+ * with MessageCodec (one parse, compact bodies) on a TASK_BUNDLE and a BUNDLE_DONE:
+ * encode and decode rate, and body size.
+ *
+ * Usage: java -cp app.jar assignment.bench.MessageCodecBenchmark [tasksPerBundle] [iterations]
+ */
+public class MessageCodecBenchmark {
+
+    private static final String[] TYPES = {"POS", "CONSTITUENCY", "DEPENDENCY"};
+
+    public static void main(String[] args) {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        List<AnalysisTaskMessage> bundleTasks = new ArrayList<>();
+        List<TaskDoneMessage> results = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            String url = "https://www.gutenberg.org/files/" + (1000 + i) + "/" + (1000 + i) + "-0.txt";
+            String type = TYPES[i % TYPES.length];
+            bundleTasks.add(new AnalysisTaskMessage(String.valueOf(i), type, url));
+            results.add(new TaskDoneMessage("bench-job", String.valueOf(i), type, url, true,
+                    "bench-bucket", "jobs/bench-job/tasks/" + i + "-" + type + ".txt", null));
+        }
+        TaskBundleMessage bundle = new TaskBundleMessage("bench-job", "0", "bench-bucket",
+                "jobs/bench-job/tasks/", bundleTasks);
+        BundleDoneMessage done = new BundleDoneMessage("bench-job", "0", results);
+
+        System.out.println("Benchmark: tasksPerBundle=" + tasks + " iterations=" + iterations);
+        run("TASK_BUNDLE", bundle, TaskBundleMessage.class, iterations);
+        run("BUNDLE_DONE", done, BundleDoneMessage.class, iterations);
+    }
+
+    private static <T> void run(String type, T message, Class<T> messageClass, int iterations) {
+        String json = JsonUtils.toJson(message);
+        String compact = MessageCodec.encode(message);
+
+        // Warm up
+        for (int i = 0; i < iterations / 10; i++) {
+            oldDecode(JsonUtils.toJson(message), messageClass);
+            MessageCodec.decode(MessageCodec.encode(message));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            json = JsonUtils.toJson(message);
+        }
+        double oldEncode = iterations / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            oldDecode(json, messageClass);
+        }
+        double oldDecode = iterations / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            compact = MessageCodec.encode(message);
+        }
+        double newEncode = iterations / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (!messageClass.isInstance(MessageCodec.decode(compact))) {
+                throw new IllegalStateException("Decoded the wrong type");
+            }
+        }
+        double newDecode = iterations / ((System.nanoTime() - start) / 1e9);
+
+        System.out.printf("%s json:  bytes=%d encode/sec=%.0f decode/sec=%.0f%n",
+                type, json.length(), oldEncode, oldDecode);
+        System.out.printf("%s codec: bytes=%d encode/sec=%.0f decode/sec=%.0f%n",
+                type, compact.length(), newEncode, newDecode);
+    }
+
+    // What the manager and workers did before: check the text for each type in turn, then parse
+    private static <T> T oldDecode(String body, Class<T> messageClass) {
+        for (String type : new String[] {"\"BUNDLE_DONE\"", "\"TASK_DONE\"", "\"NEW_JOB\"", "\"TASK_BUNDLE\""}) {
+            if (body.contains(type)) {
+                return JsonUtils.fromJson(body, messageClass);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,99 @@
+package assignment.bench;
+
+import assignment.worker.WorkerMain;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how worker parse throughput (tasks/sec) scales with the number of parser threads.
+ * Every task parses the same document, so only the parser pool size changes between runs.
+ *
+ * Usage: java -cp app.jar assignment.bench.ParseThroughputBenchmark [analysisType] [tasksPerRun] [inputFile]
+ */
+public class ParseThroughputBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    private static final String[] SAMPLE_SENTENCES = {
+            "The quick brown fox jumps over the lazy dog .",
+            "Distributed systems coordinate work between many independent machines .",
+            "The manager splits every input file into tasks and sends them to the workers through a queue .",
+            "Each worker downloads a document , parses every sentence with the Stanford parser , and uploads the result to S3 .",
+            "When all tasks of a job are done , the manager builds an HTML summary and notifies the local application , "
+                    + "which downloads the summary and writes it to the requested output file ."
+    };
+
+    public static void main(String[] args) throws Exception {
+        // Every task parses the same sentences, so the sentence cache would answer all but
+        // the first run. Turn it off unless asked for, before WorkerMain is loaded.
+        if (System.getProperty("worker.parseCacheMb") == null) {
+            System.setProperty("worker.parseCacheMb", "0");
+        }
+        // Parse each task on its own thread only, so the parser pool size is all that changes
+        if (System.getProperty("worker.sentenceThreads") == null) {
+            System.setProperty("worker.sentenceThreads", "0");
+        }
+
+        String analysisType = args.length > 0 ? args[0] : "CONSTITUENCY";
+        int tasksPerRun = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        String inputPath = args.length > 2 ? args[2] : writeSampleInput();
+
+        System.out.println("Benchmark: type=" + analysisType + " tasksPerRun=" + tasksPerRun
+                + " input=" + inputPath + " cores=" + Runtime.getRuntime().availableProcessors());
+
+        // Warm up the JIT and load the model before measuring
+        runOnce(analysisType, inputPath, 1, 4);
+
+        double baseline = 0;
+        for (int threads : THREAD_COUNTS) {
+            double tasksPerSec = runOnce(analysisType, inputPath, threads, tasksPerRun);
+            if (baseline == 0) {
+                baseline = tasksPerSec;
+            }
+            System.out.printf("threads=%d tasks/sec=%.2f speedup=%.2fx%n",
+                    threads, tasksPerSec, tasksPerSec / baseline);
+        }
+    }
+
+    private static double runOnce(String analysisType, String inputPath, int threads, int tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                String outputPath = "/tmp/bench-output-" + threads + "-" + i + ".txt";
+                futures.add(pool.submit(() -> {
+                    WorkerMain.runAnalysis(analysisType, inputPath, outputPath);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return tasks / seconds;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String writeSampleInput() throws Exception {
+        String path = "/tmp/bench-input.txt";
+        try (PrintWriter out = new PrintWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 4; i++) {
+                for (String s : SAMPLE_SENTENCES) {
+                    out.println(s);
+                }
+            }
+        }
+        return path;
+    }
+}
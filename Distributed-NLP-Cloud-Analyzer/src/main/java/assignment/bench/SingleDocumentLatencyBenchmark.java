@@ -0,0 +1,85 @@
+package assignment.bench;
+
+import assignment.worker.WorkerMain;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how long one document takes when its sentences are parsed sequentially versus
+ * on a sentence pool of 1, 2, 4 and 8 threads, and checks that the ordered parallel
+ * output is byte-for-byte the sequential output.
+ *
+ * Usage: java -cp app.jar assignment.bench.SingleDocumentLatencyBenchmark [analysisType] [inputFile]
+ */
+public class SingleDocumentLatencyBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    private static final String[] SAMPLE_SENTENCES = {
+            "The quick brown fox jumps over the lazy dog .",
+            "Distributed systems coordinate work between many independent machines .",
+            "The manager splits every input file into tasks and sends them to the workers through a queue .",
+            "Each worker downloads a document , parses every sentence with the Stanford parser , and uploads the result to S3 .",
+            "When all tasks of a job are done , the manager builds an HTML summary and notifies the local application , "
+                    + "which downloads the summary and writes it to the requested output file ."
+    };
+
+    public static void main(String[] args) throws Exception {
+        // Measure parsing, not the sentence cache
+        if (System.getProperty("worker.parseCacheMb") == null) {
+            System.setProperty("worker.parseCacheMb", "0");
+        }
+
+        String analysisType = args.length > 0 ? args[0] : "CONSTITUENCY";
+        String inputPath = args.length > 1 ? args[1] : writeSampleInput();
+        List<String> types = List.of(analysisType);
+
+        System.out.println("Benchmark: type=" + analysisType + " input=" + inputPath
+                + " cores=" + Runtime.getRuntime().availableProcessors());
+
+        // Warm up the JIT and load the model before measuring
+        WorkerMain.runAnalyses(types, inputPath, List.of("/tmp/bench-latency-warmup.txt"), null);
+
+        String sequentialPath = "/tmp/bench-latency-sequential.txt";
+        long start = System.nanoTime();
+        WorkerMain.runAnalyses(types, inputPath, List.of(sequentialPath), null);
+        double sequential = (System.nanoTime() - start) / 1e9;
+        System.out.printf("sequential: %.2f s%n", sequential);
+
+        byte[] expected = Files.readAllBytes(Path.of(sequentialPath));
+        for (int threads : THREAD_COUNTS) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                String outputPath = "/tmp/bench-latency-" + threads + ".txt";
+                start = System.nanoTime();
+                WorkerMain.runAnalyses(types, inputPath, List.of(outputPath), pool);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                boolean same = Arrays.equals(expected, Files.readAllBytes(Path.of(outputPath)));
+                System.out.printf("threads=%d: %.2f s speedup=%.2fx sameOutput=%b%n",
+                        threads, seconds, sequential / seconds, same);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private static String writeSampleInput() throws Exception {
+        String path = "/tmp/bench-latency-input.txt";
+        try (PrintWriter out = new PrintWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 20; i++) {
+                for (String s : SAMPLE_SENTENCES) {
+                    out.println(s);
+                }
+            }
+        }
+        return path;
+    }
+}
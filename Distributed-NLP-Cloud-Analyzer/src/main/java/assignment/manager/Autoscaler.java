@@ -0,0 +1,179 @@
+package assignment.manager;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import assignment.util.ComputeProvider;
+import assignment.util.Log;
+import assignment.util.Metrics;
+import assignment.util.QueueDepth;
+import assignment.util.SqsUtils;
+
+/**
+ * Sizes the worker fleet from the workers queue while the manager runs, instead of once
+ * per job from its task count.
+ *
+ * Every SCALE_INTERVAL_SECONDS it reads the queue depth (visible + in-flight messages) and
+ * how many worker messages were finished since the last check, which gives the throughput
+ * of one worker. The fleet should work off the queue in SCALE_DRAIN_SECONDS:
+ *   up target   = queued messages / (per-worker throughput * drain seconds)
+ *   down target = the same with SCALE_DOWN_HEADROOM times more workers
+ * Workers are added as soon as the up target is above the fleet (then waiting
+ * SCALE_UP_COOLDOWN_SECONDS for them to boot), and removed only after the fleet has been
+ * above the down target for SCALE_DOWN_DELAY_SECONDS, so short dips don't cause churn.
+ * Until a throughput is known, BUNDLES_PER_WORKER messages per worker are assumed.
+ * Scaling down never goes below the number of messages in flight (or the fleet, if that
+ * is smaller): any of them may be the only one a worker is busy with, and a worker stopped
+ * mid-task hands its work back for another worker to redo.
+ *
+ * Fan-out can also ask for workers right away (requestWorkers), so a new job does not
+ * wait for the next check or for SQS's approximate counts to catch up.
+ */
+public class Autoscaler {
+
+    private final ComputeProvider compute;
+    private final String queueUrl;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "autoscaler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Worker messages (TASK_DONE / BUNDLE_DONE) received since the last check
+    private final LongAdder done = new LongAdder();
+
+    // Guarded by this; the rate is volatile as /metrics reads it too
+    private long lastCheck = System.currentTimeMillis();
+    private volatile double messagesPerWorkerSecond = -1;
+    private long lastScaleUp;
+    private long aboveDownTargetSince = -1;
+
+    // What the last check saw and decided, for /metrics
+    private volatile int lastWorkers;
+    private volatile int lastUpTarget;
+    private volatile QueueDepth lastDepth = new QueueDepth(0, 0);
+    private final Metrics.Counter workersStarted =
+            Metrics.counter("manager_workers_started_total", "Workers started by the autoscaler");
+    private final Metrics.Counter workersStopped =
+            Metrics.counter("manager_workers_stopped_total", "Workers stopped by the autoscaler");
+
+    public Autoscaler(ComputeProvider compute, String queueUrl) {
+        this.compute = compute;
+        this.queueUrl = queueUrl;
+
+        Metrics.gauge("manager_workers", "Workers running or starting at the last check", () -> lastWorkers);
+        Metrics.gauge("manager_workers_target", "Workers the last check asked for", () -> lastUpTarget);
+        Metrics.gauge("manager_worker_queue_messages{state=\"visible\"}", "Messages on the workers queue at the last check",
+                () -> lastDepth.visible);
+        Metrics.gauge("manager_worker_queue_messages{state=\"in_flight\"}", "Messages on the workers queue at the last check",
+                () -> lastDepth.inFlight);
+        Metrics.gauge("manager_worker_throughput", "Worker messages finished per second per worker (-1 until known)",
+                () -> messagesPerWorkerSecond);
+    }
+
+    public void start() {
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                check(System.currentTimeMillis());
+            } catch (Exception e) {
+                Log.warn("Autoscaler check failed: {}", e.getMessage());
+            }
+        }, ManagerConfig.SCALE_INTERVAL_SECONDS, ManagerConfig.SCALE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Called for every TASK_DONE / BUNDLE_DONE message, one per worker message finished.
+     */
+    public void recordDone() {
+        done.increment();
+    }
+
+    /**
+     * Make sure at least the given number of workers is running or starting (capped at MAX_WORKERS).
+     */
+    public synchronized void requestWorkers(int required) {
+        required = Math.min(required, ManagerConfig.MAX_WORKERS);
+        int current = compute.workerCount();
+        if (required > current) {
+            Log.info("Autoscaler: fan-out asks for {} workers, have {}", required, current);
+            compute.startWorkers(required - current);
+            workersStarted.add(required - current);
+            lastScaleUp = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stop checking and stop every worker.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        compute.stopAllWorkers();
+    }
+
+    synchronized void check(long now) {
+        QueueDepth depth = SqsUtils.queueDepth(queueUrl);
+        int current = compute.workerCount();
+
+        double seconds = Math.max(1, now - lastCheck) / 1000.0;
+        long finished = done.sumThenReset();
+        lastCheck = now;
+
+        // Only intervals in which workers got something done say anything about their speed
+        if (current > 0 && finished > 0) {
+            double sample = finished / (current * seconds);
+            messagesPerWorkerSecond = messagesPerWorkerSecond < 0
+                    ? sample
+                    : 0.7 * messagesPerWorkerSecond + 0.3 * sample;
+        }
+
+        int backlog = depth.total();
+        int upTarget = target(backlog, 1.0, depth);
+        int downTarget = Math.max(target(backlog, ManagerConfig.SCALE_DOWN_HEADROOM, depth),
+                Math.min(current, depth.inFlight));
+        lastWorkers = current;
+        lastUpTarget = upTarget;
+        lastDepth = depth;
+
+        if (upTarget > current) {
+            aboveDownTargetSince = -1;
+            if (now - lastScaleUp >= ManagerConfig.SCALE_UP_COOLDOWN_SECONDS * 1000L) {
+                Log.info("Autoscaler: {} at {} -> {} to {} workers", depth, rate(), current, upTarget);
+                compute.startWorkers(upTarget - current);
+                workersStarted.add(upTarget - current);
+                lastScaleUp = now;
+            }
+        } else if (downTarget < current) {
+            if (aboveDownTargetSince < 0) {
+                aboveDownTargetSince = now;
+            } else if (now - aboveDownTargetSince >= ManagerConfig.SCALE_DOWN_DELAY_SECONDS * 1000L) {
+                Log.info("Autoscaler: {} at {} -> {} to {} workers", depth, rate(), current, downTarget);
+                compute.stopWorkers(current - downTarget);
+                workersStopped.add(current - downTarget);
+                aboveDownTargetSince = -1;
+            }
+        } else {
+            aboveDownTargetSince = -1;
+        }
+    }
+
+    // Workers needed to work off backlog messages in SCALE_DRAIN_SECONDS / headroom
+    private int target(int backlog, double headroom, QueueDepth depth) {
+        double perWorker = messagesPerWorkerSecond > 0
+                ? messagesPerWorkerSecond * ManagerConfig.SCALE_DRAIN_SECONDS
+                : ManagerConfig.BUNDLES_PER_WORKER;
+        int workers = (int) Math.ceil(backlog * headroom / perWorker);
+        if (depth.inFlight > 0) {
+            workers = Math.max(workers, 1);
+        }
+        return Math.max(ManagerConfig.MIN_WORKERS, Math.min(ManagerConfig.MAX_WORKERS, workers));
+    }
+
+    private String rate() {
+        return messagesPerWorkerSecond < 0
+                ? "unknown throughput"
+                : String.format("%.3f messages/s per worker", messagesPerWorkerSecond);
+    }
+}
@@ -0,0 +1,301 @@
+package assignment.manager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import assignment.messages.NewJobMessage;
+import assignment.messages.TaskDoneMessage;
+import assignment.util.AwsConfig;
+import assignment.util.JsonUtils;
+import assignment.util.Log;
+import assignment.util.S3Utils;
+
+/**
+ * Append-only log of everything the manager must not forget across a restart: accepted
+ * jobs, fan-out progress, recorded task results and finished jobs. One JSON JournalRecord
+ * per line, flushed to the OS before the message it came from is deleted from its queue.
+ *
+ * The log is split into numbered segments (journal-N.log). Every SNAPSHOT_SECONDS the
+ * current segment is closed, the state of every active job is written to snapshot-N.log,
+ * and segments up to N are deleted; snapshot N holds everything segments up to N did.
+ * Replaying a record twice changes nothing (the first result of a task wins), so the
+ * snapshot can be taken while new records go to the next segment.
+ *
+ * Each snapshot is mirrored to S3, with a pointer to the latest one, so a manager on a new
+ * instance can start from there. It may then miss the results of the last SNAPSHOT_SECONDS,
+ * which is why such a recovery queues the unfinished tasks of every job again.
+ */
+public class JobJournal {
+
+    /**
+     * Writes the current state as records, for a snapshot.
+     */
+    public interface Snapshotter {
+        void write(Consumer<JournalRecord> out) throws IOException;
+    }
+
+    private final Path dir;
+    private final String s3Bucket;
+    private final String s3Prefix;
+    private final boolean fsync;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "journal-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Guarded by this
+    private int segment;
+    private FileOutputStream segmentFile;
+    private Writer out;
+
+    private boolean recoveredFromS3;
+
+    public JobJournal(Path dir, String s3Bucket, String s3Prefix, boolean fsync) {
+        this.dir = dir;
+        this.s3Bucket = s3Bucket;
+        this.s3Prefix = s3Prefix;
+        this.fsync = fsync;
+    }
+
+    /**
+     * The journal configured with -Dmanager.journalDir, or null when it is turned off.
+     */
+    public static JobJournal fromConfig() {
+        if (ManagerConfig.JOURNAL_DIR.isEmpty()) {
+            return null;
+        }
+        return new JobJournal(Path.of(ManagerConfig.JOURNAL_DIR),
+                AwsConfig.S3_BUCKET,
+                ManagerConfig.JOURNAL_S3_PREFIX,
+                ManagerConfig.JOURNAL_FSYNC);
+    }
+
+    /**
+     * Feed the latest snapshot and every later segment to apply, in order, and open a new
+     * segment for appending. Falls back to the S3 mirror when there is nothing on local disk.
+     */
+    public synchronized void recover(Consumer<JournalRecord> apply) throws IOException {
+        Files.createDirectories(dir);
+
+        int snapshot = latest("snapshot-");
+        if (snapshot < 0 && latest("journal-") < 0) {
+            snapshot = downloadLatestSnapshot();
+            recoveredFromS3 = snapshot >= 0;
+        }
+
+        long start = System.currentTimeMillis();
+        long records = 0;
+        if (snapshot >= 0) {
+            records += replay(file("snapshot-", snapshot), apply);
+        }
+        int last = Math.max(snapshot, 0);
+        for (int n : numbers("journal-")) {
+            if (n > snapshot) {
+                records += replay(file("journal-", n), apply);
+            }
+            last = Math.max(last, n);
+        }
+        if (records > 0) {
+            Log.info("Journal: replayed {} records in {} ms{}", records, System.currentTimeMillis() - start,
+                    recoveredFromS3 ? " from the S3 mirror" : "");
+        }
+
+        segment = last + 1;
+        openSegment();
+    }
+
+    // True if recover() had to start from the S3 mirror, which may lag behind
+    public boolean recoveredFromS3() {
+        return recoveredFromS3;
+    }
+
+    public void startSnapshots(Snapshotter snapshotter) {
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(snapshotter);
+            } catch (Exception e) {
+                Log.warn("Journal snapshot failed: {}", e.getMessage());
+            }
+        }, ManagerConfig.SNAPSHOT_SECONDS, ManagerConfig.SNAPSHOT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public synchronized void append(JournalRecord record) {
+        try {
+            out.write(JsonUtils.toJson(record));
+            out.write('\n');
+            out.flush();
+            if (fsync) {
+                segmentFile.getChannel().force(false);
+            }
+        } catch (IOException e) {
+            // The caller must not delete the message it is journaling
+            throw new RuntimeException("Failed to append to job journal", e);
+        }
+    }
+
+    public void job(NewJobMessage job) {
+        JournalRecord r = new JournalRecord(JournalRecord.JOB, job.jobId);
+        r.job = job;
+        append(r);
+    }
+
+    public void fanOut(String jobId, int line, Integer totalTasks) {
+        JournalRecord r = new JournalRecord(JournalRecord.FANOUT, jobId);
+        r.line = line;
+        r.totalTasks = totalTasks;
+        append(r);
+    }
+
+    public void result(TaskDoneMessage done) {
+        JournalRecord r = new JournalRecord(JournalRecord.RESULT, done.jobId);
+        r.result = done;
+        append(r);
+    }
+
+    public void finished(String jobId) {
+        append(new JournalRecord(JournalRecord.FINISHED, jobId));
+    }
+
+    /**
+     * Close the current segment, write a snapshot that replaces it and everything before it,
+     * mirror the snapshot to S3 and delete what it replaced.
+     */
+    public void snapshot(Snapshotter snapshotter) throws IOException {
+        int closed;
+        synchronized (this) {
+            closed = segment;
+            out.close();
+            segment++;
+            openSegment();
+        }
+
+        Path tmp = dir.resolve("snapshot-" + closed + ".tmp");
+        int[] count = new int[1];
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(tmp), StandardCharsets.UTF_8), 1 << 16)) {
+            snapshotter.write(record -> {
+                try {
+                    w.write(JsonUtils.toJson(record));
+                    w.write('\n');
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        // On disk for sure before the segments it replaces are deleted
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Path snapshot = file("snapshot-", closed);
+        Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+
+        for (int n : numbers("journal-")) {
+            if (n <= closed) {
+                Files.deleteIfExists(file("journal-", n));
+            }
+        }
+        for (int n : numbers("snapshot-")) {
+            if (n < closed) {
+                Files.deleteIfExists(file("snapshot-", n));
+            }
+        }
+
+        if (!s3Prefix.isEmpty()) {
+            String previous = S3Utils.downloadStringIfExists(s3Bucket, s3Prefix + "latest");
+            S3Utils.uploadFile(s3Bucket, s3Prefix + snapshot.getFileName(), snapshot.toString());
+            S3Utils.uploadString(s3Bucket, s3Prefix + "latest", String.valueOf(closed));
+            if (previous != null && !previous.trim().equals(String.valueOf(closed))) {
+                S3Utils.deleteObject(s3Bucket, s3Prefix + "snapshot-" + previous.trim() + ".log");
+            }
+        }
+
+        Log.info("Journal: snapshot {} with {} records", closed, count[0]);
+    }
+
+    // Caller holds the lock
+    private void openSegment() throws IOException {
+        segmentFile = new FileOutputStream(file("journal-", segment).toFile(), true);
+        out = new BufferedWriter(new OutputStreamWriter(segmentFile, StandardCharsets.UTF_8));
+    }
+
+    private long replay(Path file, Consumer<JournalRecord> apply) throws IOException {
+        long records = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                JournalRecord record;
+                try {
+                    record = JsonUtils.fromJson(line, JournalRecord.class);
+                } catch (RuntimeException e) {
+                    // A line torn by a crash can only be the last one
+                    Log.warn("Journal: ignoring unreadable end of {}", file.getFileName());
+                    break;
+                }
+                apply.accept(record);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private int downloadLatestSnapshot() {
+        if (s3Prefix.isEmpty()) {
+            return -1;
+        }
+        try {
+            String latest = S3Utils.downloadStringIfExists(s3Bucket, s3Prefix + "latest");
+            if (latest == null) {
+                return -1;
+            }
+            int n = Integer.parseInt(latest.trim());
+            S3Utils.downloadFile(s3Bucket, s3Prefix + "snapshot-" + n + ".log", file("snapshot-", n).toString());
+            return n;
+        } catch (RuntimeException e) {
+            // Start without history rather than not at all
+            Log.warn("Journal: could not read the S3 mirror: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    private Path file(String kind, int n) {
+        return dir.resolve(kind + n + ".log");
+    }
+
+    private int latest(String kind) throws IOException {
+        List<Integer> numbers = numbers(kind);
+        return numbers.isEmpty() ? -1 : numbers.get(numbers.size() - 1);
+    }
+
+    // Numbers of the kind's files, in ascending order
+    private List<Integer> numbers(String kind) throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.startsWith(kind) && name.endsWith(".log"))
+                    .forEach(name -> numbers.add(
+                            Integer.parseInt(name.substring(kind.length(), name.length() - ".log".length()))));
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
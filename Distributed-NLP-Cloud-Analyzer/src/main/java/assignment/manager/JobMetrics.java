@@ -0,0 +1,70 @@
+package assignment.manager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import assignment.messages.SentenceStats;
+import assignment.util.LatencyHistogram;
+
+/**
+ * The numbers of a finished job, uploaded as metrics.json next to its summary so runs can
+ * be compared by tools instead of by reading HTML. Latencies are in milliseconds.
+ */
+public class JobMetrics {
+
+    /**
+     * Latency percentiles of one stage, see JobState.recordTimings.
+     */
+    public static class Stage {
+        public long count;
+        public double mean;
+        public long p50;
+        public long p95;
+        public long p99;
+        public long max;
+
+        public Stage() {
+        }
+    }
+
+    public String jobId;
+    public int totalTasks;
+    public int completedTasks;
+    public int failedTasks;
+    public int duplicateResults;
+    public int cacheHits;
+    public int cacheMisses;
+    public SentenceStats sentenceStats;
+    public Map<String, Stage> stages = new LinkedHashMap<>();
+
+    public JobMetrics() {
+    }
+
+    public static JobMetrics of(JobState job) {
+        JobMetrics m = new JobMetrics();
+        m.jobId = job.jobId;
+        m.totalTasks = job.totalTasks;
+        m.completedTasks = job.completedTasks();
+        m.failedTasks = job.failedTasks();
+        m.duplicateResults = job.duplicateResults();
+        m.cacheHits = job.cacheHits();
+        m.cacheMisses = job.cacheMisses();
+        m.sentenceStats = job.sentenceStats();
+
+        for (Map.Entry<String, LatencyHistogram> e : job.stageLatencies().entrySet()) {
+            LatencyHistogram h = e.getValue();
+            if (h.count() == 0) {
+                continue;
+            }
+            Stage s = new Stage();
+            s.count = h.count();
+            s.mean = Math.round(h.mean() * 10) / 10.0;
+            s.p50 = h.percentile(50);
+            s.p95 = h.percentile(95);
+            s.p99 = h.percentile(99);
+            s.max = h.max();
+            m.stages.put(e.getKey(), s);
+        }
+        return m;
+    }
+}
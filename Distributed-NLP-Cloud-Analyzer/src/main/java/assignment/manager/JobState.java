@@ -1,13 +1,38 @@
 package assignment.manager;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import assignment.messages.SentenceStats;
+import assignment.messages.StageTimings;
+import assignment.util.LatencyHistogram;
 
 /**
  * In-memory state for a single job that the Manager is handling.
+ *
+ * Task results are indexed by task number (the line index) and stored column by column
+ * in fixed-size pages that are allocated on first use, so a job with millions of tasks
+ * costs a few bytes per task plus its strings. Recording a result is lock-free and
+ * idempotent: the first TASK_DONE for a task wins, duplicates are ignored.
  */
 public class JobState {
 
+    // Stages of a task's latency histograms, in the order they happen
+    public static final String[] STAGES = {"queue", "download", "parse", "upload", "report", "total"};
+
+    // 4096 tasks per page, up to 2^26 tasks per job
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int MAX_PAGES = 1 << 14;
+
     public final String jobId;
 
     public final String inputBucket;
@@ -20,11 +45,54 @@ public class JobState {
     // Total number of tasks created for this job
     public volatile int totalTasks;
 
-    // Number of TASK_DONE messages processed for this job
-    public int completedTasks;
+    // Input lines whose tasks are all on the workers queue; a recovered job's fan-out resumes here
+    public volatile int fanOutCheckpoint;
+
+    // Number of distinct tasks with a recorded result, and how many of them failed
+    private final AtomicInteger completedTasks = new AtomicInteger();
+    private final AtomicInteger failedTasks = new AtomicInteger();
+    private final AtomicInteger duplicateResults = new AtomicInteger();
+
+    // Successful results that came from the result cache, and ones that had to be computed
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+
+    // Sentence budget counters of all tasks, see SentenceStats
+    private final SentenceStats sentenceStats = new SentenceStats();
+
+    // Latency per stage, see recordTimings; the map itself never changes
+    private final Map<String, LatencyHistogram> stageLatencies = new LinkedHashMap<>();
+
+    private final AtomicReferenceArray<ResultPage> pages = new AtomicReferenceArray<>(MAX_PAGES);
+
+    // Held for reading while a result is journaled and applied, and for writing while the job
+    // is written to a journal snapshot, so a snapshot never holds a result half recorded
+    public final ReadWriteLock recordLock = new ReentrantReadWriteLock();
+
+    // Set once by whoever finishes the job, so the summary is only built once
+    private final AtomicBoolean finished = new AtomicBoolean();
 
-    // taskId -> result
-    public Map<String, JobTaskResult> results = new HashMap<>();
+    /**
+     * Results of PAGE_SIZE consecutive tasks. A task's columns are written after its
+     * claimed bit is set and before its published bit is set, so readers that see the
+     * published bit also see the columns.
+     */
+    private static final class ResultPage {
+        final AtomicLongArray claimed = new AtomicLongArray(PAGE_SIZE / 64);
+        final AtomicLongArray published = new AtomicLongArray(PAGE_SIZE / 64);
+
+        final boolean[] success = new boolean[PAGE_SIZE];
+        final String[] analysisTypes = new String[PAGE_SIZE];
+        final String[] sourceUrls = new String[PAGE_SIZE];
+
+        // null when the result is at the job's default bucket / key, which is the common case
+        final String[] resultBuckets = new String[PAGE_SIZE];
+        final String[] resultKeys = new String[PAGE_SIZE];
+        final String[] errorMessages = new String[PAGE_SIZE];
+
+        // null for almost every task
+        final String[] notes = new String[PAGE_SIZE];
+    }
 
     public JobState(String jobId,
                     String inputBucket,
@@ -38,9 +106,283 @@ public class JobState {
         this.outputPrefix = outputPrefix;
         this.nPerWorker = nPerWorker;
         this.terminateWhenDone = terminateWhenDone;
+        for (String stage : STAGES) {
+            stageLatencies.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Record the result of one task. Safe to call from any number of threads.
+     * Returns false (and changes nothing) if the task already has a result.
+     */
+    public boolean recordResult(int taskIndex,
+                                String analysisType,
+                                String sourceUrl,
+                                boolean success,
+                                String resultBucket,
+                                String resultKey,
+                                String errorMessage) {
+        return recordResult(taskIndex, analysisType, sourceUrl, success, resultBucket, resultKey, errorMessage, null);
+    }
+
+    /**
+     * Same, with a note shown next to the task in the summary.
+     */
+    public boolean recordResult(int taskIndex,
+                                String analysisType,
+                                String sourceUrl,
+                                boolean success,
+                                String resultBucket,
+                                String resultKey,
+                                String errorMessage,
+                                String note) {
+        ResultPage page = page(taskIndex, true);
+        int slot = taskIndex & (PAGE_SIZE - 1);
+
+        if (!setBit(page.claimed, slot)) {
+            duplicateResults.incrementAndGet();
+            return false;
+        }
+
+        page.success[slot] = success;
+        // A handful of distinct types per job, so share one String instance per type
+        page.analysisTypes[slot] = analysisType == null ? null : analysisType.intern();
+        page.sourceUrls[slot] = sourceUrl;
+        page.resultBuckets[slot] = inputBucket.equals(resultBucket) ? null : resultBucket;
+        page.resultKeys[slot] = resultKey != null && resultKey.equals(defaultResultKey(taskIndex, analysisType))
+                ? null : resultKey;
+        page.errorMessages[slot] = errorMessage;
+        page.notes[slot] = note;
+
+        setBit(page.published, slot);
+
+        if (!success) {
+            failedTasks.incrementAndGet();
+        }
+        completedTasks.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * The recorded result of a task, or null if it has none yet.
+     */
+    public JobTaskResult result(int taskIndex) {
+        ResultPage page = page(taskIndex, false);
+        int slot = taskIndex & (PAGE_SIZE - 1);
+        if (page == null || !getBit(page.published, slot)) {
+            return null;
+        }
+
+        boolean success = page.success[slot];
+        String analysisType = page.analysisTypes[slot];
+        String resultBucket = page.resultBuckets[slot];
+        String resultKey = page.resultKeys[slot];
+        if (success && resultBucket == null) {
+            resultBucket = inputBucket;
+        }
+        if (success && resultKey == null) {
+            resultKey = defaultResultKey(taskIndex, analysisType);
+        }
+
+        JobTaskResult result = new JobTaskResult(
+                String.valueOf(taskIndex),
+                analysisType,
+                page.sourceUrls[slot],
+                success,
+                resultBucket,
+                resultKey,
+                page.errorMessages[slot]
+        );
+        result.note = page.notes[slot];
+        return result;
+    }
+
+    /**
+     * Every recorded result, in task order.
+     */
+    public void forEachResult(Consumer<JobTaskResult> action) {
+        for (int p = 0; p < MAX_PAGES; p++) {
+            ResultPage page = pages.get(p);
+            if (page == null) {
+                continue;
+            }
+            for (int slot = 0; slot < PAGE_SIZE; slot++) {
+                if (getBit(page.published, slot)) {
+                    action.accept(result((p << PAGE_SHIFT) + slot));
+                }
+            }
+        }
+    }
+
+    public boolean isTaskDone(int taskIndex) {
+        ResultPage page = page(taskIndex, false);
+        return page != null && getBit(page.published, taskIndex & (PAGE_SIZE - 1));
+    }
+
+    public int completedTasks() {
+        return completedTasks.get();
+    }
+
+    public int failedTasks() {
+        return failedTasks.get();
+    }
+
+    public int duplicateResults() {
+        return duplicateResults.get();
+    }
+
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    public int cacheHits() {
+        return cacheHits.get();
+    }
+
+    public int cacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Add the counters of a journal snapshot, like restoreLatencies. A replayed job starts
+     * from zero, so this restores them.
+     */
+    public void restoreCounters(int cacheHits, int cacheMisses, SentenceStats stats) {
+        this.cacheHits.addAndGet(cacheHits);
+        this.cacheMisses.addAndGet(cacheMisses);
+        synchronized (sentenceStats) {
+            sentenceStats.add(stats);
+        }
+    }
+
+    public void recordSentenceStats(SentenceStats stats) {
+        synchronized (sentenceStats) {
+            sentenceStats.add(stats);
+        }
+    }
+
+    /**
+     * Add a task's stage timings to the latency histograms:
+     *   queue    - enqueued by the manager until received by a worker
+     *   download, parse, upload - as measured by the worker
+     *   report   - sent by the worker until recorded by the manager
+     *   total    - enqueued until recorded
+     * Stages the timings have no times for are left out.
+     */
+    public void recordTimings(StageTimings t) {
+        recordTimings(t, stageLatencies);
+    }
+
+    /**
+     * Same, into the given histograms, one per stage in STAGES.
+     */
+    public static void recordTimings(StageTimings t, Map<String, LatencyHistogram> histograms) {
+        if (t == null) {
+            return;
+        }
+        recordStage(histograms.get("queue"), t.enqueuedAt, t.receivedAt);
+        recordStage(histograms.get("download"), t.downloadMs);
+        recordStage(histograms.get("parse"), t.parseMs);
+        recordStage(histograms.get("upload"), t.uploadMs);
+        recordStage(histograms.get("report"), t.reportedAt, t.recordedAt);
+        recordStage(histograms.get("total"), t.enqueuedAt, t.recordedAt);
+    }
+
+    public Map<String, LatencyHistogram> stageLatencies() {
+        return Collections.unmodifiableMap(stageLatencies);
+    }
+
+    /**
+     * Add the stage latencies of a journal snapshot.
+     */
+    public void restoreLatencies(Map<String, LatencyHistogram.Counts> latencies) {
+        if (latencies == null) {
+            return;
+        }
+        for (Map.Entry<String, LatencyHistogram.Counts> e : latencies.entrySet()) {
+            LatencyHistogram histogram = stageLatencies.get(e.getKey());
+            if (histogram != null) {
+                histogram.add(e.getValue());
+            }
+        }
+    }
+
+    private static void recordStage(LatencyHistogram histogram, Long from, Long to) {
+        if (from != null && to != null) {
+            // Clocks of different machines may disagree by a little
+            histogram.record(Math.max(0, to - from));
+        }
+    }
+
+    private static void recordStage(LatencyHistogram histogram, Long millis) {
+        if (millis != null) {
+            histogram.record(millis);
+        }
+    }
+
+    /**
+     * A copy of the job's sentence budget counters so far.
+     */
+    public SentenceStats sentenceStats() {
+        SentenceStats copy = new SentenceStats();
+        synchronized (sentenceStats) {
+            copy.add(sentenceStats);
+        }
+        return copy;
     }
 
     public boolean isComplete() {
-        return completedTasks == totalTasks && totalTasks > 0;
+        int total = totalTasks;
+        return total > 0 && completedTasks.get() == total;
+    }
+
+    /**
+     * Returns true for exactly one caller: the one that should finish the job.
+     */
+    public boolean markFinished() {
+        return finished.compareAndSet(false, true);
+    }
+
+    // Where a worker uploads a task's result unless it reused an existing one
+    private String defaultResultKey(int taskIndex, String analysisType) {
+        return outputPrefix + "tasks/" + taskIndex + "-" +
+                (analysisType == null ? "null" : analysisType.toLowerCase()) + ".txt";
+    }
+
+    private ResultPage page(int taskIndex, boolean create) {
+        int p = taskIndex >>> PAGE_SHIFT;
+        if (taskIndex < 0 || p >= MAX_PAGES) {
+            throw new IllegalArgumentException("Task index out of range for job " + jobId + ": " + taskIndex);
+        }
+
+        ResultPage page = pages.get(p);
+        if (page == null && create) {
+            ResultPage fresh = new ResultPage();
+            page = pages.compareAndSet(p, null, fresh) ? fresh : pages.get(p);
+        }
+        return page;
+    }
+
+    // Returns true if this call changed the bit from 0 to 1
+    private static boolean setBit(AtomicLongArray bits, int i) {
+        int word = i >>> 6;
+        long mask = 1L << i;
+        while (true) {
+            long old = bits.get(word);
+            if ((old & mask) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(word, old, old | mask)) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean getBit(AtomicLongArray bits, int i) {
+        return (bits.get(i >>> 6) & (1L << i)) != 0;
     }
 }
@@ -15,6 +15,9 @@ public class JobTaskResult {
     public String resultKey;
     public String errorMessage;
 
+    // Anything else worth showing for the task, e.g. sentences over the parse budget
+    public String note;
+
     public JobTaskResult() {
     }
 
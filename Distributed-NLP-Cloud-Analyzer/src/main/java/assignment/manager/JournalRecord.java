@@ -0,0 +1,58 @@
+package assignment.manager;
+
+import java.util.Map;
+
+import assignment.messages.NewJobMessage;
+import assignment.messages.SentenceStats;
+import assignment.messages.TaskDoneMessage;
+import assignment.util.LatencyHistogram;
+
+/**
+ * One line of the manager's job journal or of a snapshot, see JobJournal.
+ * Only the fields of its type are set.
+ */
+public class JournalRecord {
+
+    // A job was accepted: job
+    public static final String JOB = "JOB";
+
+    // Fan-out progress: the tasks of all input lines before line are on the workers queue.
+    // totalTasks is set once the whole input file is.
+    public static final String FANOUT = "FANOUT";
+
+    // A TASK_DONE (or a shard of one) was recorded: result
+    public static final String RESULT = "RESULT";
+
+    // Snapshot only: a recorded task result with its summary note: result, note
+    public static final String TASK = "TASK";
+
+    // Snapshot only: the job's counters: cacheHits, cacheMisses, sentenceStats, latencies
+    public static final String COUNTERS = "COUNTERS";
+
+    // JOB_DONE was sent, the job can be forgotten
+    public static final String FINISHED = "FINISHED";
+
+    public String type;
+    public String jobId;
+
+    public NewJobMessage job;
+
+    public Integer line;
+    public Integer totalTasks;
+
+    public TaskDoneMessage result;
+    public String note;
+
+    public Integer cacheHits;
+    public Integer cacheMisses;
+    public SentenceStats sentenceStats;
+    public Map<String, LatencyHistogram.Counts> latencies;
+
+    public JournalRecord() {
+    }
+
+    public JournalRecord(String type, String jobId) {
+        this.type = type;
+        this.jobId = jobId;
+    }
+}
@@ -0,0 +1,111 @@
+package assignment.manager;
+
+import assignment.util.AwsConfig;
+
+/**
+ * Manager tuning knobs. Each value can be overridden with a -D system property
+ * in run-manager.sh.
+ */
+public class ManagerConfig {
+
+    // Threads long-polling the worker-to-manager queue for TASK_DONE / BUNDLE_DONE
+    public static final int TASK_DONE_CONSUMERS =
+            Integer.getInteger("manager.taskDoneConsumers", 4);
+
+    // Threads shared by all jobs for sending task batches to the workers queue
+    public static final int FANOUT_SENDER_THREADS =
+            Integer.getInteger("manager.fanoutSenderThreads", 16);
+
+    // SendMessageBatch calls one job may have in flight at once
+    public static final int FANOUT_BATCHES_IN_FLIGHT =
+            Integer.getInteger("manager.fanoutBatchesInFlight", 8);
+
+    // Most tasks packed into one TASK_BUNDLE message
+    public static final int BUNDLE_MAX_TASKS =
+            Integer.getInteger("manager.bundleMaxTasks", 20);
+
+    // Each worker (n tasks) should get at least this many bundles, so small jobs still spread out
+    public static final int BUNDLES_PER_WORKER =
+            Integer.getInteger("manager.bundlesPerWorker", 4);
+
+    // A bundle is closed once its documents add up to roughly this many bytes
+    public static final long BUNDLE_TARGET_BYTES =
+            Long.getLong("manager.bundleTargetBytes", 1024 * 1024);
+
+    // Size assumed for a document whose size is not known in advance
+    public static final long DEFAULT_DOCUMENT_BYTES =
+            Long.getLong("manager.defaultDocumentBytes", 100 * 1024);
+
+    // Bundles whose JSON is bigger than this go to S3 and travel as a pointer
+    public static final int BUNDLE_SPILL_BYTES =
+            Integer.getInteger("manager.bundleSpillBytes", 200 * 1024);
+
+    // Jobs with more tasks than this get an index page plus summary pages of this many rows
+    public static final int SUMMARY_PAGE_ROWS =
+            Integer.getInteger("manager.summaryPageRows", 50_000);
+
+    // HEAD each source URL before fan-out, to learn its size and look it up in the result cache
+    public static final boolean PROBE_URLS =
+            Boolean.parseBoolean(System.getProperty("manager.probeUrls", "true"));
+
+    // Lines read ahead and probed in parallel before their tasks are bundled
+    public static final int PROBE_BATCH =
+            Integer.getInteger("manager.probeBatch", 64);
+
+    // Threads shared by all jobs for HEAD requests and cache lookups
+    public static final int PROBE_THREADS =
+            Integer.getInteger("manager.probeThreads", 32);
+
+    // Documents bigger than this (that the server serves in byte ranges) are split into
+    // line-aligned shards of about this size, each one a task of its own
+    public static final long SHARD_BYTES =
+            Long.getLong("manager.shardBytes", 1024 * 1024);
+
+    // Worker autoscaling, see Autoscaler. Fleet size limits:
+    public static final int MIN_WORKERS =
+            Integer.getInteger("manager.scale.minWorkers", 0);
+    public static final int MAX_WORKERS =
+            Integer.getInteger("manager.scale.maxWorkers", AwsConfig.MAX_WORKERS);
+
+    // How often the queue depth is checked
+    public static final int SCALE_INTERVAL_SECONDS =
+            Integer.getInteger("manager.scale.intervalSeconds", 15);
+
+    // The fleet is sized to work off the queued messages in about this long
+    public static final int SCALE_DRAIN_SECONDS =
+            Integer.getInteger("manager.scale.drainSeconds", 300);
+
+    // Hysteresis: workers are only removed once the fleet would still work off the queue
+    // in drainSeconds / downHeadroom, and that has been true for scaleDownDelaySeconds
+    public static final double SCALE_DOWN_HEADROOM =
+            Double.parseDouble(System.getProperty("manager.scale.downHeadroom", "2.0"));
+    public static final int SCALE_DOWN_DELAY_SECONDS =
+            Integer.getInteger("manager.scale.downDelaySeconds", 180);
+
+    // After starting workers, wait this long before starting more: new workers show up
+    // in the throughput only once they are booted
+    public static final int SCALE_UP_COOLDOWN_SECONDS =
+            Integer.getInteger("manager.scale.upCooldownSeconds", 60);
+
+    // Job journal for restarts, see JobJournal. An empty directory turns it off,
+    // an empty S3 prefix turns off the mirror in AwsConfig.S3_BUCKET.
+    public static final String JOURNAL_DIR =
+            System.getProperty("manager.journalDir", "/tmp/manager-journal");
+    public static final String JOURNAL_S3_PREFIX =
+            System.getProperty("manager.journalS3Prefix", "manager-journal/");
+
+    // fsync every record, so the journal also survives a crash of the machine
+    public static final boolean JOURNAL_FSYNC =
+            Boolean.parseBoolean(System.getProperty("manager.journalFsync", "false"));
+
+    public static final int SNAPSHOT_SECONDS =
+            Integer.getInteger("manager.snapshotSeconds", 60);
+
+    // Fan-out waits until its tasks are on the queue and journals its position every this many lines
+    public static final int FANOUT_CHECKPOINT_LINES =
+            Integer.getInteger("manager.fanoutCheckpointLines", 10_000);
+
+    // Port of the Prometheus /metrics endpoint (0 turns it off)
+    public static final int METRICS_PORT =
+            Integer.getInteger("manager.metricsPort", 9400);
+}
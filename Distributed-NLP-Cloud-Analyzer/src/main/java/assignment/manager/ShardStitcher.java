@@ -0,0 +1,192 @@
+package assignment.manager;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import assignment.messages.SentenceStats;
+import assignment.messages.TaskDoneMessage;
+import assignment.util.CachedResult;
+import assignment.util.Log;
+import assignment.util.ResultCache;
+import assignment.util.S3Utils;
+
+/**
+ * Collects the shard results of documents that were split into byte ranges, and once all
+ * shards of a task are in, concatenates their outputs (in shard order) into the same
+ * result object an unsharded task would have produced.
+ *
+ * The stitched result is then handed on as an ordinary TASK_DONE, so JobState never sees shards.
+ */
+public class ShardStitcher {
+
+    private static class ShardSet {
+        final TaskDoneMessage[] parts;
+        int received;
+
+        // The document's strong ETag from fan-out, for the result cache; may be null
+        volatile String etag;
+
+        ShardSet(int shardCount) {
+            this.parts = new TaskDoneMessage[shardCount];
+        }
+    }
+
+    // Keyed by jobId + "/" + taskId
+    private final Map<String, ShardSet> pending = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+    private final ResultCache resultCache;
+    private final Consumer<TaskDoneMessage> onStitched;
+
+    public ShardStitcher(ExecutorService executor, ResultCache resultCache, Consumer<TaskDoneMessage> onStitched) {
+        this.executor = executor;
+        this.resultCache = resultCache;
+        this.onStitched = onStitched;
+    }
+
+    /**
+     * Called at fan-out for every sharded task, so the stitched result can be cached by ETag.
+     */
+    public void expect(String jobId, String taskId, int shardCount, String etag) {
+        pending.computeIfAbsent(jobId + "/" + taskId, k -> new ShardSet(shardCount)).etag = etag;
+    }
+
+    /**
+     * Record one shard result. Duplicates are ignored; the last missing shard triggers the stitch.
+     */
+    public void record(TaskDoneMessage done) {
+        String key = done.jobId + "/" + done.taskId;
+        ShardSet set = pending.computeIfAbsent(key, k -> new ShardSet(done.shardCount));
+
+        synchronized (set) {
+            if (done.shardIndex < 0 || done.shardIndex >= set.parts.length || set.parts[done.shardIndex] != null) {
+                return;
+            }
+            set.parts[done.shardIndex] = done;
+            set.received++;
+            if (set.received < set.parts.length) {
+                return;
+            }
+        }
+
+        // Stays pending until the stitched result is recorded, so journal snapshots keep its parts
+        executor.submit(() -> {
+            try {
+                TaskDoneMessage stitched = stitch(set);
+                onStitched.accept(stitched);
+                // Only now: until the stitched result is journaled, a recovery stitches the parts again
+                if (stitched.success) {
+                    deleteParts(set);
+                }
+            } finally {
+                pending.remove(key);
+            }
+        });
+    }
+
+    /**
+     * The shard results of the job's documents that are not stitched and recorded yet.
+     */
+    public List<TaskDoneMessage> pendingParts(String jobId) {
+        List<TaskDoneMessage> parts = new ArrayList<>();
+        for (Map.Entry<String, ShardSet> e : pending.entrySet()) {
+            if (!e.getKey().startsWith(jobId + "/")) {
+                continue;
+            }
+            synchronized (e.getValue()) {
+                for (TaskDoneMessage part : e.getValue().parts) {
+                    if (part != null) {
+                        parts.add(part);
+                    }
+                }
+            }
+        }
+        return parts;
+    }
+
+    public void forgetJob(String jobId) {
+        pending.keySet().removeIf(k -> k.startsWith(jobId + "/"));
+    }
+
+    private TaskDoneMessage stitch(ShardSet set) {
+        TaskDoneMessage first = set.parts[0];
+
+        for (TaskDoneMessage part : set.parts) {
+            if (!part.success) {
+                return result(first, false, null, null,
+                        "Shard " + part.shardIndex + "/" + part.shardCount + ": " + part.errorMessage);
+            }
+        }
+
+        // Parts are "<key>.part-00000", "<key>.part-00001", ...
+        String bucket = first.resultBucket;
+        String resultKey = first.resultKey.substring(0, first.resultKey.lastIndexOf(".part-"));
+
+        try (OutputStream out = S3Utils.openUploadStream(bucket, resultKey, "text/plain; charset=UTF-8")) {
+            for (TaskDoneMessage part : set.parts) {
+                try (InputStream in = S3Utils.openDownloadStream(part.resultBucket, part.resultKey)) {
+                    in.transferTo(out);
+                }
+            }
+        } catch (Exception e) {
+            return result(first, false, null, null, "Failed to stitch shards: " + e.getMessage());
+        }
+
+        SentenceStats sentenceStats = new SentenceStats();
+        for (TaskDoneMessage part : set.parts) {
+            sentenceStats.add(part.sentenceStats);
+        }
+
+        // Like the worker, only cache results the sentence governor did not shape
+        if (resultCache != null && set.etag != null && !sentenceStats.anyOverBudget()) {
+            try {
+                resultCache.put(ResultCache.etagKey(first.sourceUrl, set.etag, first.analysisType),
+                        new CachedResult(bucket, resultKey));
+            } catch (Exception e) {
+                Log.warn("Result cache update failed: {}", e.getMessage());
+            }
+        }
+
+        Log.info("Job {} task {}: stitched {} shards into {}", first.jobId, first.taskId, set.parts.length, resultKey);
+
+        TaskDoneMessage stitched = result(first, true, bucket, resultKey, null);
+        stitched.sentenceStats = sentenceStats;
+        // Shards parsed together with another analysis's shards are counted with that one
+        boolean shared = true;
+        for (TaskDoneMessage part : set.parts) {
+            shared &= Boolean.TRUE.equals(part.sharedParse);
+        }
+        stitched.sharedParse = shared ? true : null;
+        return stitched;
+    }
+
+    private static void deleteParts(ShardSet set) {
+        for (TaskDoneMessage part : set.parts) {
+            try {
+                S3Utils.deleteObject(part.resultBucket, part.resultKey);
+            } catch (Exception e) {
+                Log.warn("Failed to delete shard output {}: {}", part.resultKey, e.getMessage());
+            }
+        }
+    }
+
+    private static TaskDoneMessage result(TaskDoneMessage first, boolean success,
+                                          String bucket, String key, String error) {
+        return new TaskDoneMessage(
+                first.jobId,
+                first.taskId,
+                first.analysisType,
+                first.sourceUrl,
+                success,
+                bucket,
+                key,
+                error
+        );
+    }
+}
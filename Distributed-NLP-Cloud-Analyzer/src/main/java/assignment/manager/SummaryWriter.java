@@ -0,0 +1,182 @@
+package assignment.manager;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import assignment.messages.SentenceStats;
+import assignment.util.S3Utils;
+
+/**
+ * Writes the HTML summary of a finished job row by row, in task order, straight to an
+ * output stream, so memory use does not depend on the number of tasks.
+ *
+ * Jobs with more than pageRows tasks get a paginated summary: the summary key holds an
+ * index page with the totals and links to shard pages (summary-00001.html, ...) of at
+ * most pageRows rows each.
+ */
+public class SummaryWriter {
+
+    public interface OutputOpener {
+        OutputStream open(String key) throws IOException;
+    }
+
+    private final JobState job;
+    private final String bucket;
+    private final int pageRows;
+
+    public SummaryWriter(JobState job, String bucket, int pageRows) {
+        this.job = job;
+        this.bucket = bucket;
+        this.pageRows = pageRows;
+    }
+
+    public void write(String summaryKey, OutputOpener opener) throws IOException {
+        int total = job.totalTasks;
+
+        if (total <= pageRows) {
+            try (Writer out = openWriter(opener, summaryKey)) {
+                writeHeader(out, "Job Summary: " + job.jobId);
+                writeTotals(out);
+                writeRows(out, 0, total);
+                writeFooter(out);
+            }
+            return;
+        }
+
+        int shards = (total + pageRows - 1) / pageRows;
+        String base = summaryKey.endsWith(".html")
+                ? summaryKey.substring(0, summaryKey.length() - ".html".length())
+                : summaryKey;
+
+        try (Writer out = openWriter(opener, summaryKey)) {
+            writeHeader(out, "Job Summary: " + job.jobId);
+            writeTotals(out);
+            out.write("<ul>\n");
+            for (int s = 0; s < shards; s++) {
+                int from = s * pageRows;
+                int to = Math.min(total, from + pageRows);
+                out.write("<li><a href=\"" + objectUrl(bucket, shardKey(base, s)) + "\">Tasks "
+                        + from + " - " + (to - 1) + "</a></li>\n");
+            }
+            out.write("</ul>\n");
+            out.write("</body></html>\n");
+        }
+
+        for (int s = 0; s < shards; s++) {
+            int from = s * pageRows;
+            int to = Math.min(total, from + pageRows);
+            try (Writer out = openWriter(opener, shardKey(base, s))) {
+                writeHeader(out, "Job Summary: " + job.jobId + " (tasks " + from + " - " + (to - 1) + ")");
+                out.write("<p><a href=\"" + objectUrl(bucket, summaryKey) + "\">Back to summary</a></p>\n");
+                writeRows(out, from, to);
+                writeFooter(out);
+            }
+        }
+    }
+
+    private static String shardKey(String base, int shard) {
+        return String.format("%s-%05d.html", base, shard + 1);
+    }
+
+    private Writer openWriter(OutputOpener opener, String key) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(opener.open(key), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    private void writeHeader(Writer out, String title) throws IOException {
+        out.write("<!DOCTYPE html>\n");
+        out.write("<html><head><meta charset=\"UTF-8\"><title>" + escapeHtml(title) + "</title></head><body>\n");
+        out.write("<h1>" + escapeHtml(title) + "</h1>\n");
+    }
+
+    private void writeTotals(Writer out) throws IOException {
+        out.write("<p>Total tasks: " + job.totalTasks + "</p>\n");
+        out.write("<p>Completed tasks: " + job.completedTasks() + "</p>\n");
+        out.write("<p>Failed tasks: " + job.failedTasks() + "</p>\n");
+        out.write("<p>Result cache: " + job.cacheHits() + " hits, " + job.cacheMisses() + " misses</p>\n");
+        if (job.duplicateResults() > 0) {
+            // Tasks a second worker ran again after the first one's message became visible
+            out.write("<p>Duplicate executions: " + job.duplicateResults() + "</p>\n");
+        }
+
+        SentenceStats stats = job.sentenceStats();
+        if (stats.sentences > 0) {
+            out.write("<p>Parsed: " + stats.sentences + " sentences, " + stats.tokens + " tokens</p>\n");
+        }
+        if (stats.anyOverBudget()) {
+            out.write("<p>Long sentences: " + escapeHtml(stats.describe()) + "</p>\n");
+        }
+
+        writeLatencies(out);
+    }
+
+    // Stage latency percentiles, for the stages any task reported times for
+    private void writeLatencies(Writer out) throws IOException {
+        Map<String, JobMetrics.Stage> stages = JobMetrics.of(job).stages;
+        if (stages.isEmpty()) {
+            return;
+        }
+        out.write("<table border=\"1\" cellpadding=\"4\" cellspacing=\"0\">\n");
+        out.write("<tr><th>Stage</th><th>Tasks</th><th>p50 (ms)</th><th>p95 (ms)</th>"
+                + "<th>p99 (ms)</th><th>Max (ms)</th></tr>\n");
+        for (Map.Entry<String, JobMetrics.Stage> e : stages.entrySet()) {
+            JobMetrics.Stage s = e.getValue();
+            out.write("<tr><td>" + e.getKey() + "</td><td>" + s.count + "</td><td>" + s.p50 + "</td><td>" + s.p95
+                    + "</td><td>" + s.p99 + "</td><td>" + s.max + "</td></tr>\n");
+        }
+        out.write("</table>\n");
+    }
+
+    private void writeRows(Writer out, int from, int to) throws IOException {
+        out.write("<table border=\"1\" cellpadding=\"4\" cellspacing=\"0\">\n");
+        out.write("<tr><th>Task ID</th><th>Analysis Type</th><th>Source URL</th>"
+                + "<th>Success</th><th>Result</th><th>Error</th><th>Notes</th></tr>\n");
+
+        // Task ids are line indexes, so walking them in order gives the rows in input order
+        for (int i = from; i < to; i++) {
+            JobTaskResult r = job.result(i);
+            if (r == null) {
+                continue;
+            }
+
+            out.write("<tr>");
+            out.write("<td>" + r.taskId + "</td>");
+            out.write("<td>" + r.analysisType + "</td>");
+            out.write("<td>" + escapeHtml(r.sourceUrl) + "</td>");
+            out.write("<td>" + (r.success ? "YES" : "NO") + "</td>");
+
+            if (r.success && r.resultBucket != null && r.resultKey != null) {
+                out.write("<td><a href=\"" + objectUrl(r.resultBucket, r.resultKey) + "\">View result</a></td>");
+            } else {
+                out.write("<td>-</td>");
+            }
+
+            out.write("<td>" + (r.errorMessage == null ? "" : escapeHtml(r.errorMessage)) + "</td>");
+            out.write("<td>" + (r.note == null ? "" : escapeHtml(r.note)) + "</td>");
+            out.write("</tr>\n");
+        }
+
+        out.write("</table>\n");
+    }
+
+    private void writeFooter(Writer out) throws IOException {
+        out.write("</body></html>\n");
+    }
+
+    private String objectUrl(String bucket, String key) {
+        return S3Utils.objectUrl(bucket, key);
+    }
+
+    private static String escapeHtml(String s) {
+        if (s == null) return "";
+        return s
+                .replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;");
+    }
+}
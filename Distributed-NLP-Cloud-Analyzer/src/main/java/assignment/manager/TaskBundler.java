@@ -0,0 +1,95 @@
+package assignment.manager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import assignment.messages.AnalysisTaskMessage;
+import assignment.messages.MessageCodec;
+import assignment.messages.TaskBundleMessage;
+import assignment.util.BatchSender;
+import assignment.util.S3Utils;
+
+/**
+ * Packs the tasks of one job into TASK_BUNDLE messages.
+ *
+ * A bundle is closed when it reaches the task limit or when its documents add up to
+ * BUNDLE_TARGET_BYTES, so many tiny documents share one message while big documents
+ * travel alone. The task limit also shrinks with n, so small jobs still spread over
+ * all their workers. Bundles too big for SQS are stored in S3 and sent as a pointer.
+ *
+ * Not thread-safe: used by the job's fan-out thread only.
+ */
+public class TaskBundler {
+
+    private final JobState job;
+    private final BatchSender sender;
+    private final int maxTasks;
+
+    private List<AnalysisTaskMessage> current = new ArrayList<>();
+    private long currentBytes;
+    private int bundleCount;
+
+    public TaskBundler(JobState job, BatchSender sender) {
+        this.job = job;
+        this.sender = sender;
+        this.maxTasks = Math.max(1, Math.min(ManagerConfig.BUNDLE_MAX_TASKS,
+                job.nPerWorker / ManagerConfig.BUNDLES_PER_WORKER));
+    }
+
+    /**
+     * Add a task. estimatedBytes is the source document size, or -1 if unknown.
+     */
+    public void add(AnalysisTaskMessage task, long estimatedBytes) {
+        current.add(task);
+        currentBytes += estimatedBytes > 0 ? estimatedBytes : ManagerConfig.DEFAULT_DOCUMENT_BYTES;
+
+        if (current.size() >= maxTasks || currentBytes >= ManagerConfig.BUNDLE_TARGET_BYTES) {
+            sendCurrent();
+        }
+    }
+
+    public void flush() {
+        if (!current.isEmpty()) {
+            sendCurrent();
+        }
+    }
+
+    public int bundleCount() {
+        return bundleCount;
+    }
+
+    private void sendCurrent() {
+        String bundleId = String.valueOf(bundleCount++);
+
+        TaskBundleMessage bundle = new TaskBundleMessage(
+                job.jobId,
+                bundleId,
+                job.inputBucket,
+                job.outputPrefix + "tasks/",
+                current
+        );
+        bundle.enqueuedAt = System.currentTimeMillis();
+
+        String body = MessageCodec.encode(bundle);
+
+        if (body.getBytes(StandardCharsets.UTF_8).length > ManagerConfig.BUNDLE_SPILL_BYTES) {
+            // Too big for SQS: store the full bundle in S3 and send only where to find it.
+            // Bundle ids start over when fan-out resumes after a restart, so the key also gets a
+            // random part; a bundle from before the restart may still be queued with its own payload
+            String payloadKey = job.outputPrefix + "bundles/" + bundleId + "-" + UUID.randomUUID() + ".json";
+            S3Utils.uploadString(job.inputBucket, payloadKey, body);
+
+            bundle.tasks = null;
+            bundle.payloadBucket = job.inputBucket;
+            bundle.payloadKey = payloadKey;
+            body = MessageCodec.encode(bundle);
+        }
+
+        sender.add(body);
+
+        current = new ArrayList<>();
+        currentBytes = 0;
+    }
+}
@@ -0,0 +1,311 @@
+package assignment.manager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import assignment.messages.AnalysisTaskMessage;
+import assignment.messages.TaskDoneMessage;
+import assignment.util.AwsConfig;
+import assignment.util.BatchSender;
+import assignment.util.CachedResult;
+import assignment.util.Log;
+import assignment.util.ResultCache;
+import assignment.util.UrlProbe;
+
+/**
+ * Turns the input lines of one job into tasks on the workers queue.
+ *
+ * Lines are collected in windows of PROBE_BATCH and their URLs are HEADed in parallel.
+ * Until the first task is on the queue, though, each document is sent as soon as the
+ * next line names another one, so workers can start before a whole window has been read
+ * and probed.
+ * Lines of a window that name the same URL become one task with several analyses, so
+ * the worker downloads and parses that document once. An analysis whose URL + strong
+ * ETag is already in the result cache is answered right here and never reaches a
+ * worker; the rest are bundled using the Content-Length as their size. Documents bigger
+ * than SHARD_BYTES are split into byte-range shards that workers fetch with Range requests,
+ * so one huge document no longer holds the whole job back.
+ *
+ * Not thread-safe: used by the job's fan-out thread only.
+ */
+public class TaskFanOut {
+
+    private static class PendingTask {
+        final int index;
+        final String analysisType;
+        final String sourceUrl;
+
+        PendingTask(int index, String analysisType, String sourceUrl) {
+            this.index = index;
+            this.analysisType = analysisType;
+            this.sourceUrl = sourceUrl;
+        }
+    }
+
+    private static class Probe {
+        final UrlProbe.Info info;
+
+        // One entry per task of the group, null where the cache had nothing
+        final CachedResult[] cached;
+
+        Probe(UrlProbe.Info info, CachedResult[] cached) {
+            this.info = info;
+            this.cached = cached;
+        }
+    }
+
+    private final JobState job;
+    private final ExecutorService probeExecutor;
+    private final ResultCache resultCache;
+    private final BatchSender sender;
+    private final TaskBundler bundler;
+    private final ShardStitcher stitcher;
+    private final Autoscaler autoscaler;
+    private final JobJournal journal;
+
+    private final List<PendingTask> pending = new ArrayList<>();
+    private int added;
+    private long firstSentAt;
+    private int queuedTasks;
+    private int groupedTasks;
+    private int extraShards;
+    private int requestedWorkers;
+
+    public TaskFanOut(JobState job, ExecutorService sendExecutor, ExecutorService probeExecutor,
+                      ResultCache resultCache, ShardStitcher stitcher, Autoscaler autoscaler,
+                      JobJournal journal) {
+        this.job = job;
+        this.probeExecutor = probeExecutor;
+        this.resultCache = resultCache;
+        this.stitcher = stitcher;
+        this.autoscaler = autoscaler;
+        this.journal = journal;
+
+        // Tasks are sent in batches of 10, several batches at a time, while the file is still being read
+        this.sender = new BatchSender(
+                AwsConfig.QUEUE_MANAGER_TO_WORKER,
+                sendExecutor,
+                ManagerConfig.FANOUT_BATCHES_IN_FLIGHT);
+
+        // Several lines travel in one TASK_BUNDLE message
+        this.bundler = new TaskBundler(job, sender);
+    }
+
+    public void add(int index, String analysisType, String sourceUrl) {
+        // A recovered job may already have results past its last checkpoint
+        if (job.isTaskDone(index)) {
+            return;
+        }
+
+        // Until the first task is on the queue, a document's lines go out as soon as a line
+        // names another document, so its analyses still become one task. Lines answered from
+        // the cache queue nothing, so keep at it for at most one window.
+        if (firstSentAt == 0 && added < ManagerConfig.PROBE_BATCH
+                && !pending.isEmpty() && !pending.get(0).sourceUrl.equals(sourceUrl)) {
+            finish();
+            if (queuedTasks > 0) {
+                firstSentAt = System.currentTimeMillis();
+            }
+        }
+
+        pending.add(new PendingTask(index, analysisType, sourceUrl));
+        added++;
+        if (pending.size() >= ManagerConfig.PROBE_BATCH) {
+            flushPending();
+        }
+    }
+
+    /**
+     * Send everything added so far, wait until it is on the queue, and journal that
+     * fan-out is past the given number of input lines.
+     */
+    public void checkpoint(int lines) {
+        finish();
+        job.fanOutCheckpoint = lines;
+        if (journal != null) {
+            journal.fanOut(job.jobId, lines, null);
+        }
+    }
+
+    /**
+     * Send everything still buffered and wait until it is on the queue.
+     */
+    public void finish() {
+        flushPending();
+        bundler.flush();
+        sender.flush();
+    }
+
+    // When the first task was on the queue, or 0 if none is yet
+    public long firstSentAt() {
+        return firstSentAt;
+    }
+
+    public int queuedTasks() {
+        return queuedTasks;
+    }
+
+    // Tasks that rode along on another task for the same document
+    public int groupedTasks() {
+        return groupedTasks;
+    }
+
+    // Messages the workers will process: queued tasks plus the extra shards of split documents
+    public int workUnits() {
+        return queuedTasks + extraShards;
+    }
+
+    public int bundleCount() {
+        return bundler.bundleCount();
+    }
+
+    public int requestedWorkers() {
+        return requestedWorkers;
+    }
+
+    private void flushPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // One group per distinct URL in the window, in order of first appearance
+        Map<String, List<PendingTask>> byUrl = new LinkedHashMap<>();
+        for (PendingTask t : pending) {
+            byUrl.computeIfAbsent(t.sourceUrl, url -> new ArrayList<>()).add(t);
+        }
+
+        List<Future<Probe>> probes = new ArrayList<>(byUrl.size());
+        for (List<PendingTask> group : byUrl.values()) {
+            probes.add(ManagerConfig.PROBE_URLS
+                    ? probeExecutor.submit(() -> probe(group))
+                    : null);
+        }
+
+        // Handle results in line order, so bundles still follow the input file
+        int g = 0;
+        for (List<PendingTask> group : byUrl.values()) {
+            Future<Probe> f = probes.get(g++);
+            Probe p = f == null ? new Probe(UrlProbe.UNKNOWN, new CachedResult[group.size()]) : await(f, group.size());
+
+            AnalysisTaskMessage task = null;
+            for (int i = 0; i < group.size(); i++) {
+                PendingTask t = group.get(i);
+                CachedResult cached = p.cached[i];
+
+                if (cached != null) {
+                    // A cache hit is a finished task; it may even be the one that completes the job.
+                    // Under the record lock, so a journal snapshot sees it with its counter.
+                    job.recordLock.readLock().lock();
+                    try {
+                        if (job.recordResult(t.index, t.analysisType, t.sourceUrl, true,
+                                cached.bucket, cached.key, null)) {
+                            job.recordCacheHit();
+                            journalCacheHit(t, cached);
+                        }
+                    } finally {
+                        job.recordLock.readLock().unlock();
+                    }
+                    continue;
+                }
+
+                // Build the task; jobId and result location are shared by its bundle
+                if (task == null) {
+                    task = new AnalysisTaskMessage(String.valueOf(t.index), t.analysisType, t.sourceUrl);
+                } else {
+                    if (task.alsoAnalyze == null) {
+                        task.alsoAnalyze = new ArrayList<>();
+                    }
+                    task.alsoAnalyze.add(new AnalysisTaskMessage(String.valueOf(t.index), t.analysisType, null));
+                    groupedTasks++;
+                }
+                queuedTasks++;
+            }
+
+            if (task != null) {
+                send(task, p.info);
+                ensureWorkers();
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Bundle the task, or its shards if the document is big enough to split.
+     */
+    private void send(AnalysisTaskMessage task, UrlProbe.Info info) {
+        long size = info.contentLength;
+        if (!info.acceptsRanges || size <= ManagerConfig.SHARD_BYTES) {
+            bundler.add(task, size);
+            return;
+        }
+
+        int shards = (int) ((size + ManagerConfig.SHARD_BYTES - 1) / ManagerConfig.SHARD_BYTES);
+        long shardBytes = (size + shards - 1) / shards;
+
+        for (AnalysisTaskMessage a : task.analyses()) {
+            stitcher.expect(job.jobId, a.taskId, shards, info.etag);
+        }
+        for (int s = 0; s < shards; s++) {
+            long start = s * shardBytes;
+            long end = Math.min(size, start + shardBytes);
+            bundler.add(task.shard(s, shards, start, end, info.etag), end - start);
+        }
+        extraShards += (shards - 1) * (task.alsoAnalyze == null ? 1 : 1 + task.alsoAnalyze.size());
+
+        Log.info("Job {} task {}: {} bytes split into {} shards", job.jobId, task.taskId, size, shards);
+    }
+
+    private void journalCacheHit(PendingTask t, CachedResult cached) {
+        if (journal == null) {
+            return;
+        }
+        TaskDoneMessage done = new TaskDoneMessage(job.jobId, String.valueOf(t.index), t.analysisType,
+                t.sourceUrl, true, cached.bucket, cached.key, null);
+        done.cacheHit = true;
+        journal.result(done);
+    }
+
+    private Probe probe(List<PendingTask> group) {
+        String url = group.get(0).sourceUrl;
+        UrlProbe.Info info = UrlProbe.head(url);
+        CachedResult[] cached = new CachedResult[group.size()];
+        if (resultCache == null || info.etag == null) {
+            return new Probe(info, cached);
+        }
+
+        try {
+            for (int i = 0; i < group.size(); i++) {
+                cached[i] = resultCache.get(ResultCache.etagKey(url, info.etag, group.get(i).analysisType));
+            }
+        } catch (Exception e) {
+            // A broken cache only costs us the lookup
+            Log.warn("Result cache lookup failed for {}: {}", url, e.getMessage());
+        }
+        return new Probe(info, cached);
+    }
+
+    private static Probe await(Future<Probe> f, int groupSize) {
+        try {
+            return f.get();
+        } catch (Exception e) {
+            return new Probe(UrlProbe.UNKNOWN, new CachedResult[groupSize]);
+        }
+    }
+
+    /**
+     * Start workers as soon as there is work for them instead of after the whole file is read;
+     * the autoscaler adjusts the fleet from there. m only grows, and past the cap there is
+     * nothing more to ask for.
+     */
+    private void ensureWorkers() {
+        int m = (workUnits() + job.nPerWorker - 1) / job.nPerWorker;
+        if (m > requestedWorkers && requestedWorkers < ManagerConfig.MAX_WORKERS) {
+            autoscaler.requestWorkers(m);
+            requestedWorkers = m;
+        }
+    }
+}
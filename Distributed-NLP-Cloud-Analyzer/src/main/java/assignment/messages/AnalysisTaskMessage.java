@@ -1,5 +1,8 @@
 package assignment.messages;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Sent from Manager to Worker for each analysis task (one line in the input file).
  */
@@ -22,9 +25,35 @@ public class AnalysisTaskMessage {
     public String resultBucket;
     public String resultPrefix; // Result would be inside "jobs/<jobId>/tasks/"
 
+    // Other lines of the job that asked for the same sourceUrl, grouped by the manager so the
+    // document is downloaded and parsed once. Only taskId and analysisType are set on each.
+    public List<AnalysisTaskMessage> alsoAnalyze;
+
+    // Set when the document was split into line-aligned byte ranges: this task covers the
+    // lines that start in [rangeStart, rangeEnd), and is shard shardIndex of shardCount
+    public Long rangeStart;
+    public Long rangeEnd;
+    public Integer shardIndex;
+    public Integer shardCount;
+
+    // Strong ETag of the document when the manager split it (or null): every shard must
+    // read that same version, or the stitched result would mix two
+    public String etag;
+
     public AnalysisTaskMessage() {
     }
 
+    /**
+     * Task inside a TaskBundleMessage: jobId, resultBucket and resultPrefix come from the bundle.
+     */
+    public AnalysisTaskMessage(String taskId,
+                               String analysisType,
+                               String sourceUrl) {
+        this.taskId = taskId;
+        this.analysisType = analysisType;
+        this.sourceUrl = sourceUrl;
+    }
+
     public AnalysisTaskMessage(String jobId,
                                String taskId,
                                String analysisType,
@@ -38,4 +67,44 @@ public class AnalysisTaskMessage {
         this.resultBucket = resultBucket;
         this.resultPrefix = resultPrefix;
     }
+
+    public boolean sharded() {
+        return shardCount != null;
+    }
+
+    /**
+     * A copy of this task (grouped analyses included) for one byte range of the document.
+     */
+    public AnalysisTaskMessage shard(int index, int count, long start, long end, String etag) {
+        AnalysisTaskMessage s = new AnalysisTaskMessage(jobId, taskId, analysisType,
+                sourceUrl, resultBucket, resultPrefix);
+        s.alsoAnalyze = alsoAnalyze;
+        s.rangeStart = start;
+        s.rangeEnd = end;
+        s.shardIndex = index;
+        s.shardCount = count;
+        s.etag = etag;
+        return s;
+    }
+
+    /**
+     * This task followed by the grouped ones, each with the shared fields filled in.
+     */
+    public List<AnalysisTaskMessage> analyses() {
+        List<AnalysisTaskMessage> all = new ArrayList<>();
+        all.add(this);
+        if (alsoAnalyze != null) {
+            for (AnalysisTaskMessage other : alsoAnalyze) {
+                AnalysisTaskMessage a = new AnalysisTaskMessage(jobId, other.taskId, other.analysisType,
+                        sourceUrl, resultBucket, resultPrefix);
+                a.rangeStart = rangeStart;
+                a.rangeEnd = rangeEnd;
+                a.shardIndex = shardIndex;
+                a.shardCount = shardCount;
+                a.etag = etag;
+                all.add(a);
+            }
+        }
+        return all;
+    }
 }
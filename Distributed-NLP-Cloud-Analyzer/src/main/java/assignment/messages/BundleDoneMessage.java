@@ -0,0 +1,33 @@
+package assignment.messages;
+
+import java.util.List;
+
+/**
+ * Sent from Worker to Manager when every task of a TaskBundleMessage is completed.
+ */
+public class BundleDoneMessage {
+
+    public String type = "BUNDLE_DONE";
+
+    public String jobId;
+    public String bundleId;
+
+    // One result per task in the bundle
+    public List<TaskDoneMessage> results;
+
+    // Where the bundle's tasks were stored if it was too big for SQS, for the manager
+    // to delete once the results are recorded
+    public String payloadBucket;
+    public String payloadKey;
+
+    public BundleDoneMessage() {
+    }
+
+    public BundleDoneMessage(String jobId,
+                             String bundleId,
+                             List<TaskDoneMessage> results) {
+        this.jobId = jobId;
+        this.bundleId = bundleId;
+        this.results = results;
+    }
+}
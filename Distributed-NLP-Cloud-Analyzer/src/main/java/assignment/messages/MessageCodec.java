@@ -0,0 +1,122 @@
+package assignment.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Queue message bodies. A body is either plain JSON (starts with '{'), or a versioned
+ * envelope: "Z1:" followed by the base64 of the deflated JSON. Bundles repeat the same
+ * prefixes, keys and field names over and over, so they shrink to a fraction.
+ * SQS bodies must be text, hence base64 rather than raw bytes.
+ *
+ * Readers accept both forms, whatever -Dmessages.encoding says:
+ *   compact (default) - bodies of at least messages.compressMinBytes are deflated
+ *   json              - always plain JSON, for consumers that predate the envelope
+ *
+ * decode() parses a body once and picks the message class from its "type" field,
+ * instead of searching the text for each type and parsing it again.
+ */
+public class MessageCodec {
+
+    private static final String DEFLATE_V1 = "Z1:";
+
+    private static final boolean COMPACT =
+            !"json".equals(System.getProperty("messages.encoding", "compact"));
+    private static final int COMPRESS_MIN_BYTES =
+            Integer.getInteger("messages.compressMinBytes", 512);
+
+    private static final Map<String, Class<?>> TYPES = Map.of(
+            "NEW_JOB", NewJobMessage.class,
+            "ANALYSIS_TASK", AnalysisTaskMessage.class,
+            "TASK_BUNDLE", TaskBundleMessage.class,
+            "TASK_DONE", TaskDoneMessage.class,
+            "BUNDLE_DONE", BundleDoneMessage.class,
+            "JOB_DONE", JobDoneMessage.class
+    );
+
+    // Same settings as JsonUtils
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    public static String encode(Object message) {
+        byte[] json;
+        try {
+            json = mapper.writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode " + message.getClass().getSimpleName(), e);
+        }
+
+        if (COMPACT && json.length >= COMPRESS_MIN_BYTES) {
+            String compact = DEFLATE_V1 + Base64.getEncoder().encodeToString(deflate(json));
+            if (compact.length() < json.length) {
+                return compact;
+            }
+        }
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The message in the body, as an instance of the class its type names,
+     * or null if the type is missing or unknown.
+     */
+    public static Object decode(String body) {
+        try {
+            JsonNode tree = mapper.readTree(json(body));
+            JsonNode type = tree.get("type");
+            Class<?> messageClass = type == null ? null : TYPES.get(type.asText());
+            return messageClass == null ? null : mapper.treeToValue(tree, messageClass);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode message", e);
+        }
+    }
+
+    /**
+     * Decode a body that must hold the given message class.
+     */
+    public static <T> T decode(String body, Class<T> messageClass) {
+        Object message = decode(body);
+        if (!messageClass.isInstance(message)) {
+            throw new IllegalArgumentException("Expected " + messageClass.getSimpleName() + " but got "
+                    + (message == null ? "an unknown message" : message.getClass().getSimpleName()));
+        }
+        return messageClass.cast(message);
+    }
+
+    private static byte[] json(String body) throws IOException {
+        if (body.startsWith(DEFLATE_V1)) {
+            byte[] compressed = Base64.getDecoder().decode(body.substring(DEFLATE_V1.length()));
+            try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+                return in.readAllBytes();
+            }
+        }
+        if (!body.startsWith("{")) {
+            throw new IOException("Unsupported message encoding: "
+                    + body.substring(0, Math.min(8, body.length())));
+        }
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+}
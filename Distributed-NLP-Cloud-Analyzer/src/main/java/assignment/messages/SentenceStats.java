@@ -0,0 +1,62 @@
+package assignment.messages;
+
+/**
+ * How many sentences of a task went over the worker's per-sentence budgets
+ * (length in tokens, parse time) and what was done with them, out of how many
+ * sentences and tokens were parsed. Carried in TaskDoneMessage.
+ */
+public class SentenceStats {
+
+    public int sentences;
+
+    // Tokens in those sentences
+    public long tokens;
+
+    // Over budget: longer than the token limit, or parse ran past the time limit
+    public int overLength;
+    public int overTime;
+
+    // What the over-budget policy did with them
+    public int chunked;
+    public int fallback;
+    public int skipped;
+
+    public SentenceStats() {
+    }
+
+    public void add(SentenceStats other) {
+        if (other == null) {
+            return;
+        }
+        sentences += other.sentences;
+        tokens += other.tokens;
+        overLength += other.overLength;
+        overTime += other.overTime;
+        chunked += other.chunked;
+        fallback += other.fallback;
+        skipped += other.skipped;
+    }
+
+    public boolean anyOverBudget() {
+        return overLength + overTime > 0;
+    }
+
+    /**
+     * E.g. "3 of 120 sentences over budget (2 too long, 1 too slow): 2 chunked, 1 skipped"
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(overLength + overTime).append(" of ").append(sentences).append(" sentences over budget (")
+                .append(overLength).append(" too long, ").append(overTime).append(" too slow):");
+        if (chunked > 0) {
+            sb.append(" ").append(chunked).append(" chunked");
+        }
+        if (fallback > 0) {
+            sb.append(" ").append(fallback).append(" fallback");
+        }
+        if (skipped > 0) {
+            sb.append(" ").append(skipped).append(" skipped");
+        }
+        return sb.toString();
+    }
+}
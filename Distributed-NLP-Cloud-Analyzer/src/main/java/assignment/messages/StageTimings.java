@@ -0,0 +1,30 @@
+package assignment.messages;
+
+/**
+ * When a task went through each stage, carried from the manager to the worker and back
+ * in the task and result messages. Times are epoch millis, each taken by the machine that
+ * saw the stage happen, so stages across machines are only as exact as their clocks.
+ * Stages that did not run for a task (e.g. parse for a result cache hit) stay null.
+ */
+public class StageTimings {
+
+    // Manager: the task's bundle was handed to the sender
+    public Long enqueuedAt;
+
+    // Worker: the message was received
+    public Long receivedAt;
+
+    // Worker: time spent downloading, parsing and uploading the document
+    public Long downloadMs;
+    public Long parseMs;
+    public Long uploadMs;
+
+    // Worker: the TASK_DONE / BUNDLE_DONE was sent
+    public Long reportedAt;
+
+    // Manager: the result was recorded
+    public Long recordedAt;
+
+    public StageTimings() {
+    }
+}
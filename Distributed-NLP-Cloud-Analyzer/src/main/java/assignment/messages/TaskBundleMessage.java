@@ -0,0 +1,46 @@
+package assignment.messages;
+
+import java.util.List;
+
+/**
+ * Sent from Manager to Worker with several analysis tasks of the same job, so small
+ * documents don't each pay for their own SQS round trips.
+ */
+public class TaskBundleMessage {
+
+    public String type = "TASK_BUNDLE";
+
+    public String jobId;
+
+    // Bundle identifier within the job (e.g. "0", "1", ...)
+    public String bundleId;
+
+    // Shared by every task in the bundle, so they are not repeated per task
+    public String resultBucket;
+    public String resultPrefix;
+
+    // The tasks themselves; only taskId, analysisType and sourceUrl are set on each
+    public List<AnalysisTaskMessage> tasks;
+
+    // If the bundle was too big for SQS, tasks is null and the full bundle JSON is stored here
+    public String payloadBucket;
+    public String payloadKey;
+
+    // When the manager queued the bundle, see StageTimings
+    public Long enqueuedAt;
+
+    public TaskBundleMessage() {
+    }
+
+    public TaskBundleMessage(String jobId,
+                             String bundleId,
+                             String resultBucket,
+                             String resultPrefix,
+                             List<AnalysisTaskMessage> tasks) {
+        this.jobId = jobId;
+        this.bundleId = bundleId;
+        this.resultBucket = resultBucket;
+        this.resultPrefix = resultPrefix;
+        this.tasks = tasks;
+    }
+}
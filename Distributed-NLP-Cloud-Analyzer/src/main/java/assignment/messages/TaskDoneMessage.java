@@ -24,6 +24,23 @@ public class TaskDoneMessage {
     // Error description if success == false
     public String errorMessage;
 
+    // true if the result was reused from the result cache instead of parsed
+    public boolean cacheHit;
+
+    // Sentences over the worker's length / time budgets; null if nothing was parsed
+    public SentenceStats sentenceStats;
+
+    // Stage timestamps and durations of the task; null from workers that don't send them
+    public StageTimings timings;
+
+    // true on all but one of the analyses a worker parsed together: they carry that one's
+    // sentenceStats and timings, which the manager counts only once
+    public Boolean sharedParse;
+
+    // Set for one byte range of a sharded document; the manager stitches the shards together
+    public Integer shardIndex;
+    public Integer shardCount;
+
     public TaskDoneMessage() {
     }
 
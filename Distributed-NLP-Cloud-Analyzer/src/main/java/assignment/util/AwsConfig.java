@@ -28,5 +28,8 @@ public class AwsConfig {
 
     public static final String TAG_KEY_JOB_ID = "JobId";
 
+    // Safety limit on running workers, to avoid AWS student account blocks
+    public static final int MAX_WORKERS = 19;
+
 
 }
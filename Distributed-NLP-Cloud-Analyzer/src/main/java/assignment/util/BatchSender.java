@@ -0,0 +1,104 @@
+package assignment.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Buffers message bodies for one queue and sends them 10 at a time with SendMessageBatch
+ * (fewer if the batch would go over the SQS batch size limit).
+ * Several batches can be in flight at once on the given executor; add() blocks once
+ * maxInFlight batches are outstanding, so a fast producer cannot run ahead forever.
+ *
+ * Not thread-safe: one producer thread per sender.
+ */
+public class BatchSender {
+
+    private final String queueUrl;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    private List<String> current = new ArrayList<>(SqsUtils.MAX_BATCH_SIZE);
+    private int currentBytes;
+
+    // First send failure, rethrown to the producer on its next call
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    public BatchSender(String queueUrl, Executor executor, int maxInFlight) {
+        this.queueUrl = queueUrl;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    public void add(String body) {
+        checkFailure();
+
+        int bytes = body.getBytes(StandardCharsets.UTF_8).length;
+        if (!current.isEmpty() && currentBytes + bytes > SqsUtils.MAX_MESSAGE_BYTES) {
+            submitCurrent();
+        }
+
+        current.add(body);
+        currentBytes += bytes;
+        if (current.size() == SqsUtils.MAX_BATCH_SIZE) {
+            submitCurrent();
+        }
+    }
+
+    /**
+     * Send whatever is buffered and wait until every batch has been sent.
+     */
+    public void flush() {
+        if (!current.isEmpty()) {
+            submitCurrent();
+        }
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while flushing batches to " + queueUrl, e);
+        }
+        checkFailure();
+    }
+
+    private void submitCurrent() {
+        List<String> batch = current;
+        current = new ArrayList<>(SqsUtils.MAX_BATCH_SIZE);
+        currentBytes = 0;
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sending batch to " + queueUrl, e);
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    SqsUtils.sendMessageBatch(queueUrl, batch);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void checkFailure() {
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+}
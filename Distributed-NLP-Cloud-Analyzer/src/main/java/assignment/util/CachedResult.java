@@ -0,0 +1,18 @@
+package assignment.util;
+
+/**
+ * Location of an analysis result that can be reused by later tasks.
+ */
+public class CachedResult {
+
+    public String bucket;
+    public String key;
+
+    public CachedResult() {
+    }
+
+    public CachedResult(String bucket, String key) {
+        this.bucket = bucket;
+        this.key = key;
+    }
+}
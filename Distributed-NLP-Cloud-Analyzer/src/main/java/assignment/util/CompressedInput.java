@@ -0,0 +1,37 @@
+package assignment.util;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Undoes the compression of a stream, if any, recognized by its first bytes rather than
+ * by a file name, so an input list can be uploaded as is, gzipped or zstd-compressed.
+ * zstd is decoded with zstd-jni (com.github.luben:zstd-jni).
+ */
+public class CompressedInput {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The decompressed content of in. Closing the result closes in.
+     */
+    public static InputStream decode(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(4);
+        byte[] magic = buffered.readNBytes(4);
+        buffered.reset();
+
+        if (magic.length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        if (magic.length == 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5
+                && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd) {
+            return new ZstdInputStream(buffered);
+        }
+        return buffered;
+    }
+}
@@ -0,0 +1,43 @@
+package assignment.util;
+
+/**
+ * Where the manager and worker processes run. Chosen with -Dcompute=ec2|local|inprocess
+ * (default ec2), so the manager's scaling loop can run against local processes, or
+ * threads of its own JVM, without AWS.
+ */
+public interface ComputeProvider {
+
+    /**
+     * Make sure a manager is there to take the local app's job.
+     */
+    void ensureManagerRunning();
+
+    /**
+     * Workers that are running or starting.
+     */
+    int workerCount();
+
+    void startWorkers(int count);
+
+    /**
+     * Stop count workers, the most recently started first. A stopped worker hands its
+     * in-flight messages back to the queue on the way out.
+     */
+    void stopWorkers(int count);
+
+    void stopAllWorkers();
+
+    static ComputeProvider create() {
+        String name = System.getProperty("compute", "ec2");
+        switch (name) {
+            case "ec2":
+                return new Ec2ComputeProvider();
+            case "local":
+                return new LocalProcessComputeProvider();
+            case "inprocess":
+                return new InProcessComputeProvider();
+            default:
+                throw new IllegalArgumentException("Unknown compute provider: " + name);
+        }
+    }
+}
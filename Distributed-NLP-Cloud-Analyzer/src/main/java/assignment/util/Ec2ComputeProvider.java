@@ -0,0 +1,35 @@
+package assignment.util;
+
+import java.util.List;
+
+/**
+ * The manager and workers as EC2 instances tagged Role=Manager and Role=Worker.
+ */
+public class Ec2ComputeProvider implements ComputeProvider {
+
+    @Override
+    public void ensureManagerRunning() {
+        Ec2Utils.ensureManagerRunning();
+    }
+
+    @Override
+    public int workerCount() {
+        return Ec2Utils.listWorkers().size();
+    }
+
+    @Override
+    public void startWorkers(int count) {
+        Ec2Utils.launchWorkers(count);
+    }
+
+    @Override
+    public void stopWorkers(int count) {
+        List<String> ids = Ec2Utils.listWorkers();
+        Ec2Utils.terminateWorkers(ids.subList(0, Math.min(count, ids.size())));
+    }
+
+    @Override
+    public void stopAllWorkers() {
+        Ec2Utils.terminateAllWorkers();
+    }
+}
@@ -5,6 +5,7 @@ import software.amazon.awssdk.services.ec2.model.*;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -127,15 +128,15 @@ public class Ec2Utils {
 
         int newWorkers = requiredWorkers - k;
 
-        int maxAllowedNew = Math.max(0, 19 - k);
+        int maxAllowedNew = Math.max(0, AwsConfig.MAX_WORKERS - k);
         if (maxAllowedNew <= 0) {
-            System.out.println("Worker limit reached (19). Cannot launch more workers.");
+            System.out.println("Worker limit reached (" + AwsConfig.MAX_WORKERS + "). Cannot launch more workers.");
             return;
         }
 
         if (newWorkers > maxAllowedNew) {
             System.out.println("Requested " + newWorkers + " new workers, but limited to "
-                    + maxAllowedNew + " due to 19 cap.");
+                    + maxAllowedNew + " due to " + AwsConfig.MAX_WORKERS + " cap.");
             newWorkers = maxAllowedNew;
         }
 
@@ -144,6 +145,37 @@ public class Ec2Utils {
             return;
         }
 
+        launchWorkers(newWorkers);
+    }
+
+    /**
+     * Ids of the worker instances in pending/running state, most recently launched first.
+     */
+    public static List<String> listWorkers() {
+        DescribeInstancesRequest describeReq = DescribeInstancesRequest.builder()
+                .filters(
+                        Filter.builder()
+                                .name("tag:" + AwsConfig.TAG_KEY_ROLE)
+                                .values(AwsConfig.TAG_VALUE_WORKER)
+                                .build(),
+                        Filter.builder()
+                                .name("instance-state-name")
+                                .values("pending", "running")
+                                .build()
+                )
+                .build();
+
+        return ec2.describeInstances(describeReq).reservations().stream()
+                .flatMap(r -> r.instances().stream())
+                .sorted(Comparator.comparing(Instance::launchTime).reversed())
+                .map(Instance::instanceId)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Launch newWorkers worker instances. Does not check the MAX_WORKERS cap.
+     */
+    public static void launchWorkers(int newWorkers) {
         System.out.println("Launching " + newWorkers + " worker(s).");
 
         String workerAmiId = resolveWorkerAmiIdFromManager();
@@ -184,6 +216,16 @@ public class Ec2Utils {
                 System.out.println("Launched worker instances: " + ids);
     }
 
+    public static void terminateWorkers(List<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        ec2.terminateInstances(TerminateInstancesRequest.builder()
+                .instanceIds(ids)
+                .build());
+        System.out.println("Terminate requested for worker instances: " + ids);
+    }
+
     /**
      * Terminate ALL worker instances (Role=Worker),
      * in any of the listed states.
@@ -0,0 +1,146 @@
+package assignment.util;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MessageTransport that keeps every queue in memory, for running the local app, the
+ * manager and workers in a single JVM (see LocalRunner). Follows SQS semantics closely
+ * enough for the application: at-least-once delivery, visibility timeouts and receive counts.
+ */
+public class InMemoryTransport implements MessageTransport {
+
+    private static class Entry {
+        final String messageId;
+        final String body;
+        int receiveCount;
+        volatile long invisibleUntil;
+
+        Entry(String messageId, String body) {
+            this.messageId = messageId;
+            this.body = body;
+        }
+    }
+
+    private static class Queue {
+        final LinkedBlockingDeque<Entry> visible = new LinkedBlockingDeque<>();
+
+        // receipt handle -> message currently received and not yet deleted
+        final Map<String, Entry> inFlight = new ConcurrentHashMap<>();
+    }
+
+    private final Map<String, Queue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    private Queue queue(String queueUrl) {
+        return queues.computeIfAbsent(queueUrl, q -> new Queue());
+    }
+
+    @Override
+    public void send(String queueUrl, String body) {
+        queue(queueUrl).visible.addLast(new Entry(String.valueOf(nextId.incrementAndGet()), body));
+    }
+
+    @Override
+    public List<Integer> sendBatch(String queueUrl, List<String> bodies) {
+        for (String body : bodies) {
+            send(queueUrl, body);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Message> receive(String queueUrl, int maxMessages, int waitSeconds, int visibilityTimeout) {
+        Queue q = queue(queueUrl);
+        long deadline = System.currentTimeMillis() + waitSeconds * 1000L;
+        List<Message> result = new ArrayList<>();
+
+        try {
+            while (result.isEmpty()) {
+                requeueExpired(q);
+
+                Entry first = q.visible.pollFirst(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    result.add(markReceived(q, first, visibilityTimeout));
+                    Entry next;
+                    while (result.size() < maxMessages && (next = q.visible.pollFirst()) != null) {
+                        result.add(markReceived(q, next, visibilityTimeout));
+                    }
+                } else if (System.currentTimeMillis() >= deadline) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+
+    private Message markReceived(Queue q, Entry e, int visibilityTimeout) {
+        String receiptHandle = UUID.randomUUID().toString();
+        int receiveCount;
+        synchronized (e) {
+            receiveCount = ++e.receiveCount;
+        }
+        e.invisibleUntil = System.currentTimeMillis() + visibilityTimeout * 1000L;
+        q.inFlight.put(receiptHandle, e);
+
+        return Message.builder()
+                .messageId(e.messageId)
+                .receiptHandle(receiptHandle)
+                .body(e.body)
+                .attributesWithStrings(Map.of("ApproximateReceiveCount", String.valueOf(receiveCount)))
+                .build();
+    }
+
+    // Messages whose visibility timeout ran out become visible again, like in SQS
+    private void requeueExpired(Queue q) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> it = q.inFlight.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getValue().invisibleUntil <= now && q.inFlight.remove(e.getKey(), e.getValue())) {
+                q.visible.addLast(e.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void delete(String queueUrl, Message message) {
+        queue(queueUrl).inFlight.remove(message.receiptHandle());
+    }
+
+    @Override
+    public void changeVisibility(String queueUrl, Message message, int visibilityTimeout) {
+        Queue q = queue(queueUrl);
+        Entry e = q.inFlight.get(message.receiptHandle());
+        if (e == null) {
+            return;
+        }
+
+        if (visibilityTimeout <= 0) {
+            if (q.inFlight.remove(message.receiptHandle(), e)) {
+                q.visible.addFirst(e);
+            }
+        } else {
+            e.invisibleUntil = System.currentTimeMillis() + visibilityTimeout * 1000L;
+        }
+    }
+
+    @Override
+    public QueueDepth depth(String queueUrl) {
+        Queue q = queue(queueUrl);
+        requeueExpired(q);
+        return new QueueDepth(q.visible.size(), q.inFlight.size());
+    }
+}
@@ -0,0 +1,52 @@
+package assignment.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import assignment.worker.WorkerMain;
+
+/**
+ * Workers on threads of the manager's own JVM, for running every component in one process
+ * with the memory transport (see LocalRunner). The manager is that same process.
+ *
+ * At most -Dcompute.inProcessWorkers workers (default 1) run at a time: one worker already
+ * has a parser thread per core, so more would only share the same CPUs.
+ */
+public class InProcessComputeProvider implements ComputeProvider {
+
+    private static final int MAX_WORKERS = Math.max(1, Integer.getInteger("compute.inProcessWorkers", 1));
+
+    // Most recently started last
+    private final Deque<WorkerMain> workers = new ArrayDeque<>();
+    private final AtomicInteger started = new AtomicInteger();
+
+    @Override
+    public void ensureManagerRunning() {
+        // Runs in this JVM, started by LocalRunner
+    }
+
+    @Override
+    public synchronized int workerCount() {
+        return workers.size();
+    }
+
+    @Override
+    public synchronized void startWorkers(int count) {
+        for (int i = 0; i < count && workers.size() < MAX_WORKERS; i++) {
+            workers.addLast(WorkerMain.startInProcess("worker-" + started.incrementAndGet()));
+        }
+    }
+
+    @Override
+    public synchronized void stopWorkers(int count) {
+        for (int i = 0; i < count && !workers.isEmpty(); i++) {
+            workers.removeLast().stop();
+        }
+    }
+
+    @Override
+    public synchronized void stopAllWorkers() {
+        stopWorkers(workers.size());
+    }
+}
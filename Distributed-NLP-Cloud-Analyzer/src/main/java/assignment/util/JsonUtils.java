@@ -1,5 +1,6 @@
 package assignment.util;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
@@ -7,7 +8,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 public class JsonUtils {
 
-    private static final ObjectMapper mapper = new ObjectMapper();
+    // Null fields are left out: they read back as null anyway, and bundles have many of them
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
 
     public static String toJson(Object obj) {
         try {
@@ -0,0 +1,138 @@
+package assignment.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of latencies in milliseconds, for percentiles without keeping every value.
+ *
+ * Values below 16 ms get a bucket each; above that every power of two is split into 8
+ * buckets, so a percentile is at most 1/8 above the true value. The buckets cover any
+ * long and never grow, and recording is lock-free, so any thread may record at any time.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The recorded values in a form a journal snapshot can hold.
+     */
+    public static class Counts {
+        public long sum;
+        public long max;
+
+        // Bucket counts; trailing empty buckets are left out
+        public long[] buckets;
+
+        public Counts() {
+        }
+    }
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR + (63 - (SUB_BITS + 1)) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        buckets.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sum() {
+        return sum.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * The value below which the given share (0-100) of the recorded values fall, rounded
+     * up to the end of its bucket; 0 if nothing was recorded.
+     */
+    public long percentile(double percent) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percent / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public Counts counts() {
+        long[] copy = new long[BUCKETS];
+        int used = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = buckets.get(i);
+            if (copy[i] != 0) {
+                used = i + 1;
+            }
+        }
+        Counts c = new Counts();
+        c.sum = sum.get();
+        c.max = max.get();
+        c.buckets = Arrays.copyOf(copy, used);
+        return c;
+    }
+
+    /**
+     * Add values recorded elsewhere, e.g. by the manager before a restart.
+     */
+    public void add(Counts other) {
+        if (other == null || other.buckets == null) {
+            return;
+        }
+        long n = 0;
+        for (int i = 0; i < Math.min(other.buckets.length, BUCKETS); i++) {
+            buckets.addAndGet(i, other.buckets[i]);
+            n += other.buckets[i];
+        }
+        count.addAndGet(n);
+        sum.addAndGet(other.sum);
+        max.accumulateAndGet(other.max, Math::max);
+    }
+
+    static int bucket(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return LINEAR + (magnitude - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int magnitude = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        int shift = magnitude - SUB_BITS;
+        long lowest = (long) (SUB_BUCKETS + sub) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
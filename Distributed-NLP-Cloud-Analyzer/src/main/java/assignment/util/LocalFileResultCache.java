@@ -0,0 +1,45 @@
+package assignment.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * ResultCache that stores one small JSON file per key in a local directory.
+ * Meant for tests and single-box runs.
+ */
+public class LocalFileResultCache implements ResultCache {
+
+    private final Path dir;
+
+    public LocalFileResultCache(String dir) {
+        this.dir = Path.of(dir);
+    }
+
+    @Override
+    public CachedResult get(String key) {
+        try {
+            return JsonUtils.fromJson(Files.readString(dir.resolve(key), StandardCharsets.UTF_8), CachedResult.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read result cache entry " + key, e);
+        }
+    }
+
+    @Override
+    public void put(String key, CachedResult result) {
+        try {
+            Files.createDirectories(dir);
+            // Write then rename, so readers never see a half-written entry
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            Files.writeString(tmp, JsonUtils.toJson(result), StandardCharsets.UTF_8);
+            Files.move(tmp, dir.resolve(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write result cache entry " + key, e);
+        }
+    }
+}
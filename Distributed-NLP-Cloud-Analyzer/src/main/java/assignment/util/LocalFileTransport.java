@@ -0,0 +1,190 @@
+package assignment.util;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * MessageTransport that keeps each queue in a local directory, so separate processes
+ * on one machine can talk to each other without AWS.
+ *
+ * Layout per queue: ready/ holds visible messages, inflight/ holds received ones.
+ * A message is claimed by atomically renaming it from ready/ to inflight/, and its
+ * visibility deadline is the file's modification time. File names are "<id>#<receiveCount>",
+ * and the in-flight file name doubles as the receipt handle.
+ */
+public class LocalFileTransport implements MessageTransport {
+
+    private final Path root;
+    private final AtomicLong seq = new AtomicLong();
+
+    public LocalFileTransport(String rootDir) {
+        this.root = Path.of(rootDir);
+    }
+
+    private Path queueDir(String queueUrl, String sub) throws IOException {
+        String name = queueUrl.substring(queueUrl.lastIndexOf('/') + 1);
+        Path dir = root.resolve(name).resolve(sub);
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    @Override
+    public void send(String queueUrl, String body) {
+        try {
+            // Ids start with the send time so listing ready/ in name order is roughly FIFO
+            String id = String.format("%013d-%09d-%s", System.currentTimeMillis(),
+                    seq.incrementAndGet(), UUID.randomUUID().toString().substring(0, 8));
+
+            Path tmp = queueDir(queueUrl, "tmp").resolve(id);
+            Files.writeString(tmp, body, StandardCharsets.UTF_8);
+            Files.move(tmp, queueDir(queueUrl, "ready").resolve(id + "#0"), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to send message to local queue " + queueUrl, e);
+        }
+    }
+
+    @Override
+    public List<Integer> sendBatch(String queueUrl, List<String> bodies) {
+        for (String body : bodies) {
+            send(queueUrl, body);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Message> receive(String queueUrl, int maxMessages, int waitSeconds, int visibilityTimeout) {
+        long deadline = System.currentTimeMillis() + waitSeconds * 1000L;
+        List<Message> result = new ArrayList<>();
+
+        try {
+            Path ready = queueDir(queueUrl, "ready");
+            Path inflight = queueDir(queueUrl, "inflight");
+
+            while (true) {
+                requeueExpired(inflight, ready);
+
+                for (String name : list(ready)) {
+                    if (result.size() >= maxMessages) {
+                        break;
+                    }
+                    Message m = tryClaim(ready, inflight, name, visibilityTimeout);
+                    if (m != null) {
+                        result.add(m);
+                    }
+                }
+
+                if (!result.isEmpty() || System.currentTimeMillis() >= deadline) {
+                    return result;
+                }
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return result;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to receive from local queue " + queueUrl, e);
+        }
+    }
+
+    private Message tryClaim(Path ready, Path inflight, String name, int visibilityTimeout) throws IOException {
+        int sep = name.lastIndexOf('#');
+        String id = name.substring(0, sep);
+        int receiveCount = Integer.parseInt(name.substring(sep + 1)) + 1;
+        String receiptHandle = id + "#" + receiveCount;
+
+        try {
+            // Set the deadline before the rename, so no other process sees an expired in-flight file
+            Files.setLastModifiedTime(ready.resolve(name),
+                    FileTime.fromMillis(System.currentTimeMillis() + visibilityTimeout * 1000L));
+            Files.move(ready.resolve(name), inflight.resolve(receiptHandle), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Another receiver claimed it first
+            return null;
+        }
+
+        String body = Files.readString(inflight.resolve(receiptHandle), StandardCharsets.UTF_8);
+        return Message.builder()
+                .messageId(id)
+                .receiptHandle(receiptHandle)
+                .body(body)
+                .attributesWithStrings(Map.of("ApproximateReceiveCount", String.valueOf(receiveCount)))
+                .build();
+    }
+
+    // Messages whose visibility deadline passed become visible again, like in SQS
+    private void requeueExpired(Path inflight, Path ready) throws IOException {
+        long now = System.currentTimeMillis();
+        for (String name : list(inflight)) {
+            try {
+                Path p = inflight.resolve(name);
+                if (Files.getLastModifiedTime(p).toMillis() <= now) {
+                    Files.move(p, ready.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (NoSuchFileException ignored) {
+                // Deleted or requeued by someone else in the meantime
+            }
+        }
+    }
+
+    private List<String> list(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public void delete(String queueUrl, Message message) {
+        try {
+            Files.deleteIfExists(queueDir(queueUrl, "inflight").resolve(message.receiptHandle()));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to delete message from local queue " + queueUrl, e);
+        }
+    }
+
+    @Override
+    public void changeVisibility(String queueUrl, Message message, int visibilityTimeout) {
+        try {
+            Path p = queueDir(queueUrl, "inflight").resolve(message.receiptHandle());
+            if (visibilityTimeout <= 0) {
+                Files.move(p, queueDir(queueUrl, "ready").resolve(message.receiptHandle()),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.setLastModifiedTime(p,
+                        FileTime.fromMillis(System.currentTimeMillis() + visibilityTimeout * 1000L));
+            }
+        } catch (NoSuchFileException ignored) {
+            // Already deleted or returned to the queue
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to change visibility in local queue " + queueUrl, e);
+        }
+    }
+
+    @Override
+    public QueueDepth depth(String queueUrl) {
+        try {
+            Path ready = queueDir(queueUrl, "ready");
+            Path inflight = queueDir(queueUrl, "inflight");
+            requeueExpired(inflight, ready);
+            return new QueueDepth(list(ready).size(), list(inflight).size());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to count local queue " + queueUrl, e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package assignment.util;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Objects as files under a local directory, <root>/<bucket>/<key>, for running without S3
+ * (-Dstorage=local, see S3Utils). Every process on the machine sees the same objects.
+ *
+ * An object is written to a temporary file and renamed into place, so like an S3 object
+ * it is either all there or not there at all. Errors are thrown the way S3Utils throws
+ * them, so callers can't tell the two apart.
+ */
+public class LocalObjectStore {
+
+    private final Path root;
+
+    public LocalObjectStore(String rootDir) {
+        this.root = Path.of(rootDir);
+    }
+
+    public void uploadFile(String bucket, String key, String filePath) {
+        try {
+            publish(bucket, key, tmp -> Files.copy(Path.of(filePath), tmp, StandardCopyOption.REPLACE_EXISTING));
+        } catch (IOException e) {
+            throw failure("upload " + filePath + " to", bucket, key, e);
+        }
+    }
+
+    public void downloadFile(String bucket, String key, String localPath) {
+        try {
+            Files.copy(path(bucket, key), Path.of(localPath), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw failure("download", bucket, key, e, " to " + localPath);
+        }
+    }
+
+    public void uploadString(String bucket, String key, String content) {
+        try {
+            publish(bucket, key, tmp -> Files.writeString(tmp, content, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw failure("upload", bucket, key, e);
+        }
+    }
+
+    /**
+     * The object's content, or null if it does not exist.
+     */
+    public String downloadStringIfExists(String bucket, String key) {
+        try {
+            return Files.readString(path(bucket, key), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw failure("download", bucket, key, e);
+        }
+    }
+
+    public String downloadString(String bucket, String key) {
+        String content = downloadStringIfExists(bucket, key);
+        if (content == null) {
+            throw failure("download", bucket, key, new NoSuchFileException(path(bucket, key).toString()));
+        }
+        return content;
+    }
+
+    public InputStream openDownloadStream(String bucket, String key) {
+        try {
+            return Files.newInputStream(path(bucket, key));
+        } catch (IOException e) {
+            throw failure("download", bucket, key, e);
+        }
+    }
+
+    /**
+     * Stream to the object, which appears once the stream is closed.
+     */
+    public OutputStream openUploadStream(String bucket, String key) {
+        try {
+            Path tmp = tempFile(bucket, key);
+            return new FilterOutputStream(new FileOutputStream(tmp.toFile())) {
+                private boolean closed;
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    super.close();
+                    Files.move(tmp, path(bucket, key), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+            };
+        } catch (IOException e) {
+            throw failure("upload", bucket, key, e);
+        }
+    }
+
+    public void deleteObject(String bucket, String key) {
+        try {
+            // Like S3, deleting an object that is not there is fine
+            Files.deleteIfExists(path(bucket, key));
+        } catch (IOException e) {
+            throw failure("delete", bucket, key, e);
+        }
+    }
+
+    /**
+     * Where the object is, as a file: URL, e.g. for links in the summary.
+     */
+    public String url(String bucket, String key) {
+        return path(bucket, key).toUri().toString();
+    }
+
+    private interface Writer {
+        void write(Path tmp) throws IOException;
+    }
+
+    // Write the object to a temporary file next to it, then rename it into place
+    private void publish(String bucket, String key, Writer writer) throws IOException {
+        Path tmp = tempFile(bucket, key);
+        try {
+            writer.write(tmp);
+            Files.move(tmp, path(bucket, key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path tempFile(String bucket, String key) throws IOException {
+        Path path = path(bucket, key);
+        Files.createDirectories(path.getParent());
+        return path.resolveSibling("." + path.getFileName() + ".tmp-" + UUID.randomUUID());
+    }
+
+    private Path path(String bucket, String key) {
+        Path bucketDir = root.resolve(bucket).normalize();
+        Path path = bucketDir.resolve(key).normalize();
+        if (!path.startsWith(bucketDir)) {
+            throw new IllegalArgumentException("Key leaves its bucket: " + key);
+        }
+        return path;
+    }
+
+    private static RuntimeException failure(String action, String bucket, String key, Exception e) {
+        return failure(action, bucket, key, e, "");
+    }
+
+    private static RuntimeException failure(String action, String bucket, String key, Exception e, String suffix) {
+        return new RuntimeException("Failed to " + action + " s3://" + bucket + "/" + key + suffix, e);
+    }
+}
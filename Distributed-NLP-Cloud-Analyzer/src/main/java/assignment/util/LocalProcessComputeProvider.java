@@ -0,0 +1,89 @@
+package assignment.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Workers as child JVMs of the manager, on the manager's classpath. Meant for the file
+ * transport (-Dtransport=file), whose queues the child processes share with the manager.
+ *
+ * The transport, object storage, result cache and worker/analysis settings are passed on
+ * to every worker. Each worker logs to /tmp/local-worker-<n>.log.
+ *
+ * The manager runs on the same machine, started by hand, e.g.
+ *   java -Dtransport=file -Dstorage=local -Dcompute=local -cp app.jar assignment.ManagerMain
+ */
+public class LocalProcessComputeProvider implements ComputeProvider {
+
+    // System properties handed on to the workers: these and everything under them, e.g. transport.dir
+    private static final String[] FORWARDED = {"transport", "storage", "resultCache", "worker", "analysis"};
+
+    // Most recently started last
+    private final Deque<Process> workers = new ArrayDeque<>();
+    private final AtomicInteger started = new AtomicInteger();
+
+    @Override
+    public void ensureManagerRunning() {
+        // Started by hand on this machine; the job waits on the queue until it is
+    }
+
+    @Override
+    public synchronized int workerCount() {
+        workers.removeIf(p -> !p.isAlive());
+        return workers.size();
+    }
+
+    @Override
+    public synchronized void startWorkers(int count) {
+        for (int i = 0; i < count; i++) {
+            int n = started.incrementAndGet();
+            try {
+                Process p = new ProcessBuilder(command())
+                        .redirectErrorStream(true)
+                        .redirectOutput(new File("/tmp/local-worker-" + n + ".log"))
+                        .start();
+                workers.addLast(p);
+                Log.info("Started local worker {} (pid {})", n, p.pid());
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to start local worker", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void stopWorkers(int count) {
+        for (int i = 0; i < count && !workers.isEmpty(); i++) {
+            Process p = workers.removeLast();
+            // SIGTERM, so the worker's shutdown hook returns its messages to the queue
+            p.destroy();
+            Log.info("Stopped local worker (pid {})", p.pid());
+        }
+    }
+
+    @Override
+    public synchronized void stopAllWorkers() {
+        stopWorkers(workers.size());
+    }
+
+    private static List<String> command() {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (String name : System.getProperties().stringPropertyNames()) {
+            for (String forwarded : FORWARDED) {
+                if (name.equals(forwarded) || name.startsWith(forwarded + ".")) {
+                    command.add("-D" + name + "=" + System.getProperty(name));
+                    break;
+                }
+            }
+        }
+        command.add("assignment.worker.WorkerMain");
+        return command;
+    }
+}
@@ -0,0 +1,251 @@
+package assignment.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous event log for the manager and worker hot paths.
+ *
+ * Callers only claim a slot in a preallocated ring and store the level, the time, their
+ * thread name, a format with {} placeholders and its arguments; a background thread turns
+ * the events into lines and writes them to System.out in batches. So logging a TASK_DONE
+ * costs neither string building nor a synchronized console write on the consumer thread.
+ * Arguments are formatted later, so pass values that don't change afterwards.
+ *
+ * Events below -Dlog.level (DEBUG | INFO | WARN | ERROR, default INFO) are dropped before
+ * anything is stored. When the ring (-Dlog.bufferSize events) is full, callers wait for
+ * the writer, or with -Dlog.dropWhenFull=true drop the event, and the number dropped is
+ * logged. -Dlog.async=false writes every event right away on the calling thread instead.
+ *
+ * Each line is "time LEVEL [thread] message", e.g.
+ *   2024-05-01T12:00:00.123Z INFO [task-done-consumer-0] Job j1 task 7 done. success=true (8/10)
+ * A Throwable passed as the last argument, with no {} left for it, is written after the
+ * line with its stack trace:
+ *   Log.error("Failed to create tasks for job {}", jobId, e);
+ */
+public class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final class Event {
+        // Sequence number of the event in this slot once it is published, see log()
+        volatile long published = -1;
+
+        Level level;
+        long time;
+        String thread;
+        String format;
+        Object[] args;
+        int argCount;
+    }
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase());
+    private static final boolean ASYNC = Boolean.parseBoolean(System.getProperty("log.async", "true"));
+    private static final boolean DROP_WHEN_FULL = Boolean.getBoolean("log.dropWhenFull");
+    // Enough for every call site; later arguments are printed as {}
+    private static final int MAX_ARGS = 8;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ISO_INSTANT.withZone(ZoneOffset.UTC);
+
+    private static final Event[] ring;
+    private static final int mask;
+
+    // Next sequence number to claim, and next one to write out
+    private static final AtomicLong claimed = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    // Only used by whoever holds the drain lock
+    private static final StringBuilder line = new StringBuilder(256);
+    private static final StringBuilder batch = new StringBuilder(64 * 1024);
+    private static long droppedReported;
+    private static long formattedSecond = -1;
+    private static String formattedTime = "";
+    private static final Object drainLock = new Object();
+
+    static {
+        int size = Integer.highestOneBit(Math.max(2, Integer.getInteger("log.bufferSize", 16384)));
+        ring = new Event[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Event();
+            ring[i].args = new Object[MAX_ARGS];
+        }
+        mask = size - 1;
+
+        if (ASYNC) {
+            Thread writer = new Thread(Log::writeLoop, "log-writer");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    public static void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    public static void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    public static void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    public static void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    /**
+     * Write out every event logged so far, e.g. before the process exits.
+     */
+    public static void flush() {
+        if (ASYNC) {
+            drain();
+        }
+    }
+
+    // Events dropped since startup because the ring was full
+    public static long dropped() {
+        return dropped.get();
+    }
+
+    private static void log(Level level, String format, Object[] args) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        if (!ASYNC) {
+            synchronized (drainLock) {
+                format(level, System.currentTimeMillis(), Thread.currentThread().getName(), format, args, args.length);
+                System.out.println(line);
+            }
+            return;
+        }
+
+        // Claim the next slot, unless the writer has not written out its previous event yet
+        long seq;
+        while (true) {
+            seq = claimed.get();
+            if (seq - written.get() >= ring.length) {
+                if (DROP_WHEN_FULL) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.parkNanos(50_000);
+            } else if (claimed.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+
+        Event e = ring[(int) seq & mask];
+        e.level = level;
+        e.time = System.currentTimeMillis();
+        e.thread = Thread.currentThread().getName();
+        e.format = format;
+        e.argCount = Math.min(args.length, MAX_ARGS);
+        System.arraycopy(args, 0, e.args, 0, e.argCount);
+        if (args.length > MAX_ARGS && args[args.length - 1] instanceof Throwable) {
+            // Keep the stack trace rather than the last argument that fits
+            e.args[MAX_ARGS - 1] = args[args.length - 1];
+        }
+        e.published = seq;
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            if (!drain()) {
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+    }
+
+    /**
+     * Write out the published events in order. Returns false if there were none.
+     */
+    private static boolean drain() {
+        synchronized (drainLock) {
+            long seq = written.get();
+            Event e = ring[(int) seq & mask];
+            if (e.published != seq) {
+                return false;
+            }
+
+            long lost = dropped.get() - droppedReported;
+            droppedReported += lost;
+            if (lost > 0) {
+                batch.append("Log: dropped ").append(lost).append(" events, the log buffer was full\n");
+            }
+
+            while (e.published == seq) {
+                format(e.level, e.time, e.thread, e.format, e.args, e.argCount);
+                batch.append(line).append('\n');
+
+                // Let go of the arguments before the slot is handed back
+                for (int i = 0; i < e.argCount; i++) {
+                    e.args[i] = null;
+                }
+                e.format = null;
+                written.set(++seq);
+
+                if (batch.length() >= 60 * 1024) {
+                    write();
+                }
+                e = ring[(int) seq & mask];
+            }
+            write();
+            return true;
+        }
+    }
+
+    private static void write() {
+        if (batch.length() > 0) {
+            System.out.print(batch);
+            System.out.flush();
+            batch.setLength(0);
+        }
+    }
+
+    // Caller holds drainLock
+    private static void format(Level level, long time, String thread, String format, Object[] args, int argCount) {
+        line.setLength(0);
+
+        // Format the time once per second, then add the millis: "2024-05-01T12:00:00" + ".123Z"
+        long second = time / 1000;
+        if (second != formattedSecond) {
+            String full = TIME.format(Instant.ofEpochSecond(second));
+            formattedTime = full.substring(0, full.length() - 1);
+            formattedSecond = second;
+        }
+        int millis = (int) (time % 1000);
+        line.append(formattedTime).append('.')
+                .append((char) ('0' + millis / 100)).append((char) ('0' + millis / 10 % 10)).append((char) ('0' + millis % 10))
+                .append('Z');
+        line.append(' ').append(level).append(" [").append(thread).append("] ");
+
+        int arg = 0;
+        int from = 0;
+        int brace;
+        while ((brace = format.indexOf("{}", from)) >= 0) {
+            line.append(format, from, brace);
+            line.append(arg < argCount ? String.valueOf(args[arg]) : "{}");
+            arg++;
+            from = brace + 2;
+        }
+        line.append(format, from, format.length());
+
+        if (arg < argCount && args[argCount - 1] instanceof Throwable) {
+            StringWriter trace = new StringWriter();
+            ((Throwable) args[argCount - 1]).printStackTrace(new PrintWriter(trace));
+            line.append('\n').append(trace.toString().stripTrailing());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package assignment.util;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The queue operations the application needs, independent of where the queues live.
+ * Queues are addressed by their SQS URL in every implementation.
+ */
+public interface MessageTransport {
+
+    void send(String queueUrl, String body);
+
+    /**
+     * Send without waiting for the call. Transports without non-blocking calls send right away.
+     */
+    default CompletableFuture<Void> sendAsync(String queueUrl, String body) {
+        try {
+            send(queueUrl, body);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Send up to 10 bodies in one call.
+     * Returns the indexes (into bodies) of the entries that failed and may be retried.
+     * Throws IllegalArgumentException if an entry was rejected, which no retry would fix.
+     */
+    List<Integer> sendBatch(String queueUrl, List<String> bodies);
+
+    List<Message> receive(String queueUrl, int maxMessages, int waitSeconds, int visibilityTimeout);
+
+    void delete(String queueUrl, Message message);
+
+    /**
+     * Delete without waiting for the call. Transports without non-blocking calls delete right away.
+     */
+    default CompletableFuture<Void> deleteAsync(String queueUrl, Message message) {
+        try {
+            delete(queueUrl, message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    void changeVisibility(String queueUrl, Message message, int visibilityTimeout);
+
+    /**
+     * Change the visibility of up to 10 messages in one call.
+     * Returns the indexes (into messages) of the entries that failed.
+     * Transports without batch calls change them one at a time.
+     */
+    default List<Integer> changeVisibilityBatch(String queueUrl, List<Message> messages, int visibilityTimeout) {
+        List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                changeVisibility(queueUrl, messages.get(i), visibilityTimeout);
+            } catch (RuntimeException e) {
+                failed.add(i);
+            }
+        }
+        return failed;
+    }
+
+    QueueDepth depth(String queueUrl);
+}
@@ -0,0 +1,206 @@
+package assignment.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Process-wide metrics, served in the Prometheus text format on http://host:port/metrics.
+ *
+ * Counters are LongAdders and latencies go into LatencyHistograms, so recording one from
+ * the parse loop is an add on a mostly uncontended cell and allocates nothing. Gauges and
+ * counters kept elsewhere (e.g. by the caches) are registered as suppliers and only read
+ * when scraped.
+ *
+ * Names may carry labels, e.g. worker_tasks_total{result="failed"}; series that share the
+ * part before '{' are one metric family.
+ */
+public class Metrics {
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    private static class Series {
+        final String name;
+        final String help;
+        final String type;
+
+        // Counter, LongSupplier, DoubleSupplier or LatencyHistogram
+        final Object source;
+
+        Series(String name, String help, String type, Object source) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.source = source;
+        }
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    // Guarded by itself; in registration order
+    private static final Map<String, Series> series = new LinkedHashMap<>();
+
+    /**
+     * The counter with this name, created on first use.
+     */
+    public static Counter counter(String name, String help) {
+        synchronized (series) {
+            Series s = series.get(name);
+            if (s == null) {
+                s = new Series(name, help, "counter", new Counter());
+                series.put(name, s);
+            }
+            return (Counter) s.source;
+        }
+    }
+
+    /**
+     * A counter kept elsewhere, read when scraped.
+     */
+    public static void counter(String name, String help, LongSupplier value) {
+        register(new Series(name, help, "counter", value));
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        register(new Series(name, help, "gauge", value));
+    }
+
+    /**
+     * Served as a summary: p50/p95/p99, sum and count.
+     */
+    public static void summary(String name, String help, LatencyHistogram histogram) {
+        register(new Series(name, help, "summary", histogram));
+    }
+
+    /**
+     * Serve /metrics on the given port, with the JVM's heap and thread gauges added.
+     * Does nothing for port 0; if the port is taken (e.g. several workers on one host)
+     * the process runs on without the endpoint.
+     */
+    public static void serve(int port) {
+        if (port <= 0) {
+            return;
+        }
+        Runtime rt = Runtime.getRuntime();
+        gauge("jvm_heap_used_bytes", "Heap in use", () -> rt.totalMemory() - rt.freeMemory());
+        gauge("jvm_heap_max_bytes", "Largest heap the JVM will use", rt::maxMemory);
+        gauge("jvm_threads", "Live threads", Thread::activeCount);
+
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "metrics-http");
+                t.setDaemon(true);
+                return t;
+            }));
+            server.start();
+            Log.info("Metrics on port {} at /metrics", port);
+        } catch (IOException e) {
+            Log.warn("Metrics endpoint disabled: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Every registered series in the Prometheus text format.
+     */
+    public static String render() {
+        Map<String, List<Series>> families = new LinkedHashMap<>();
+        synchronized (series) {
+            for (Series s : series.values()) {
+                families.computeIfAbsent(family(s.name), k -> new ArrayList<>()).add(s);
+            }
+        }
+
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, List<Series>> family : families.entrySet()) {
+            Series first = family.getValue().get(0);
+            out.append("# HELP ").append(family.getKey()).append(' ').append(first.help).append('\n');
+            out.append("# TYPE ").append(family.getKey()).append(' ').append(first.type).append('\n');
+
+            for (Series s : family.getValue()) {
+                if (s.source instanceof LatencyHistogram) {
+                    LatencyHistogram h = (LatencyHistogram) s.source;
+                    for (double q : QUANTILES) {
+                        line(out, withLabel(s.name, "quantile=\"" + q + "\""), h.percentile(q * 100));
+                    }
+                    line(out, suffixed(s.name, "_sum"), h.sum());
+                    line(out, suffixed(s.name, "_count"), h.count());
+                } else if (s.source instanceof Counter) {
+                    line(out, s.name, ((Counter) s.source).get());
+                } else if (s.source instanceof LongSupplier) {
+                    line(out, s.name, ((LongSupplier) s.source).getAsLong());
+                } else {
+                    double value = ((DoubleSupplier) s.source).getAsDouble();
+                    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                        line(out, s.name, (long) value);
+                    } else {
+                        out.append(s.name).append(' ').append(value).append('\n');
+                    }
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void register(Series s) {
+        synchronized (series) {
+            series.put(s.name, s);
+        }
+    }
+
+    private static void line(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String family(String name) {
+        int brace = name.indexOf('{');
+        return brace < 0 ? name : name.substring(0, brace);
+    }
+
+    // name{a="1"} + b="2" -> name{a="1",b="2"}
+    private static String withLabel(String name, String label) {
+        int brace = name.indexOf('{');
+        return brace < 0
+                ? name + "{" + label + "}"
+                : name.substring(0, name.length() - 1) + "," + label + "}";
+    }
+
+    // name{a="1"} + _sum -> name_sum{a="1"}
+    private static String suffixed(String name, String suffix) {
+        int brace = name.indexOf('{');
+        return brace < 0 ? name + suffix : family(name) + suffix + name.substring(brace);
+    }
+}
@@ -0,0 +1,64 @@
+package assignment.util;
+
+import java.util.List;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Long-polls one queue on its own thread and hands every message to a handler as soon
+ * as it arrives. The handler decides whether to delete the message.
+ */
+public class QueueConsumer implements Runnable {
+
+    public interface Handler {
+        void handle(String queueUrl, Message message) throws Exception;
+    }
+
+    // Longest long poll SQS allows
+    private static final int WAIT_SECONDS = 20;
+
+    private final String queueUrl;
+    private final Handler handler;
+
+    public QueueConsumer(String queueUrl, Handler handler) {
+        this.queueUrl = queueUrl;
+        this.handler = handler;
+    }
+
+    /**
+     * Start a consumer on a new daemon thread.
+     */
+    public static Thread start(String name, String queueUrl, Handler handler) {
+        Thread t = new Thread(new QueueConsumer(queueUrl, handler), name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Message> messages;
+            try {
+                messages = SqsUtils.receiveMessages(queueUrl, SqsUtils.MAX_BATCH_SIZE, WAIT_SECONDS);
+            } catch (Exception e) {
+                Log.warn("Failed to receive from {}: {}", queueUrl, e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+
+            for (Message m : messages) {
+                try {
+                    handler.handle(queueUrl, m);
+                } catch (Exception e) {
+                    // Not deleted, so SQS will deliver it again after the visibility timeout
+                    Log.error("Failed to handle message {} from {}: {}", m.messageId(), queueUrl, e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
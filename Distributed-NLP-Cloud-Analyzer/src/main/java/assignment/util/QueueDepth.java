@@ -0,0 +1,25 @@
+package assignment.util;
+
+/**
+ * Approximate number of messages in a queue: visible ones waiting for a consumer, and
+ * in-flight ones that were received but not deleted yet.
+ */
+public class QueueDepth {
+
+    public final int visible;
+    public final int inFlight;
+
+    public QueueDepth(int visible, int inFlight) {
+        this.visible = visible;
+        this.inFlight = inFlight;
+    }
+
+    public int total() {
+        return visible + inFlight;
+    }
+
+    @Override
+    public String toString() {
+        return "visible=" + visible + " inFlight=" + inFlight;
+    }
+}
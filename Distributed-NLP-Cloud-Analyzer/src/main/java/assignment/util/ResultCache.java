@@ -0,0 +1,73 @@
+package assignment.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Maps "this document + this analysis" to an analysis result already stored in S3,
+ * so documents that show up again in later jobs are not downloaded and parsed again.
+ *
+ * Keys are content-addressed: either the SHA-256 of the document bytes (known to the
+ * worker after download) or the URL plus its strong ETag (known to the manager from a
+ * HEAD request). Both include the analysis type, the engine that produces it and MODEL_VERSION.
+ *
+ * The backend is picked with -DresultCache=s3|file|none (default s3).
+ */
+public interface ResultCache {
+
+    // Bump whenever the parser model or the output format changes, so old results are not reused
+    String MODEL_VERSION = "englishPCFG-v1";
+
+    /**
+     * Where an earlier result for this key is stored, or null.
+     */
+    CachedResult get(String key);
+
+    void put(String key, CachedResult result);
+
+    static String contentKey(String sha256Hex, String analysisType) {
+        return "sha256-" + sha256Hex + "-" + version(analysisType);
+    }
+
+    static String etagKey(String url, String etag, String analysisType) {
+        return "etag-" + sha256Hex(url + "\n" + etag) + "-" + version(analysisType);
+    }
+
+    /**
+     * Analysis type + engine + model, e.g. "POS-tagger-englishPCFG-v1". Engines are chosen with
+     * -Danalysis.engine.<type> (see WorkerConfig); the same property is read here so the
+     * manager's lookups match what the workers store.
+     */
+    static String version(String analysisType) {
+        String engine = System.getProperty("analysis.engine." + analysisType.toLowerCase(), "pcfg");
+        return analysisType.toUpperCase() + "-" + engine + "-" + MODEL_VERSION;
+    }
+
+    static String sha256Hex(String s) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The configured cache, or null when caching is off.
+     */
+    static ResultCache create() {
+        String backend = System.getProperty("resultCache", "s3");
+        switch (backend) {
+            case "s3":
+                return new S3ResultCache(AwsConfig.S3_BUCKET, "cache/");
+            case "file":
+                return new LocalFileResultCache(System.getProperty("resultCache.dir", "/tmp/result-cache"));
+            case "none":
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown result cache: " + backend);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package assignment.util;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream over an S3 object that picks up where it left off if the connection breaks
+ * before the end: it asks for the rest of the object from the byte it got to, and only
+ * for the same version of it (If-Match on the ETag). A slow reader, like fan-out going
+ * through a big input list line by line, would otherwise lose the object half way when
+ * an idle connection is closed.
+ */
+public class S3InputStream extends InputStream {
+
+    private static final int MAX_RESUMES = 5;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+
+    private ResponseInputStream<GetObjectResponse> in;
+    private final String etag;
+    private final long length;
+
+    private long position;
+    private int resumes;
+    private boolean closed;
+
+    S3InputStream(S3Client s3, String bucket, String key) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.in = s3.getObject(b -> b.bucket(bucket).key(key));
+        this.etag = in.response().eTag();
+        this.length = in.response().contentLength() == null ? -1 : in.response().contentLength();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            try {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            } catch (IOException e) {
+                if (position == length) {
+                    return -1;
+                }
+                resume(e);
+            }
+        }
+    }
+
+    private void resume(IOException e) throws IOException {
+        if (closed || etag == null || ++resumes > MAX_RESUMES) {
+            throw e;
+        }
+        Log.warn("Lost s3://{}/{} at byte {} ({}), asking for the rest", bucket, key, position, e.getMessage());
+
+        in.abort();
+        try {
+            in = s3.getObject(b -> b.bucket(bucket).key(key).range("bytes=" + position + "-").ifMatch(etag));
+        } catch (SdkException retry) {
+            e.addSuppressed(retry);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (position != length) {
+            // Stopped early: don't read the rest of the object just to reuse the connection
+            in.abort();
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,26 @@
+package assignment.util;
+
+/**
+ * ResultCache that stores one small JSON object per key under a prefix in S3.
+ */
+public class S3ResultCache implements ResultCache {
+
+    private final String bucket;
+    private final String prefix;
+
+    public S3ResultCache(String bucket, String prefix) {
+        this.bucket = bucket;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public CachedResult get(String key) {
+        String json = S3Utils.downloadStringIfExists(bucket, prefix + key);
+        return json == null ? null : JsonUtils.fromJson(json, CachedResult.class);
+    }
+
+    @Override
+    public void put(String key, CachedResult result) {
+        S3Utils.uploadString(bucket, prefix + key, JsonUtils.toJson(result));
+    }
+}
@@ -0,0 +1,154 @@
+package assignment.util;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * OutputStream that writes straight into an S3 object. Bytes are buffered up to one part
+ * (8 MB) at a time and uploaded with a multipart upload, so memory stays fixed however
+ * big the object gets. Objects smaller than one part are sent with a single PutObject.
+ * The object only appears in S3 once the stream is closed.
+ */
+public class S3UploadStream extends OutputStream {
+
+    // S3 parts must be at least 5 MB, except the last one
+    private static final int PART_SIZE = 8 * 1024 * 1024;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String key;
+    private final String contentType;
+
+    // Grows up to PART_SIZE, so small objects don't pay for a full part buffer
+    private byte[] buffer = new byte[64 * 1024];
+    private int pos;
+
+    private String uploadId;
+    private final List<CompletedPart> parts = new ArrayList<>();
+    private boolean closed;
+
+    S3UploadStream(S3Client s3, String bucket, String key, String contentType) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.contentType = contentType;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (pos == buffer.length) {
+            makeRoom();
+        }
+        buffer[pos++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (pos == buffer.length) {
+                makeRoom();
+            }
+            int n = Math.min(len, buffer.length - pos);
+            System.arraycopy(b, off, buffer, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void makeRoom() throws IOException {
+        if (buffer.length < PART_SIZE) {
+            buffer = Arrays.copyOf(buffer, Math.min(PART_SIZE, buffer.length * 2));
+        } else {
+            uploadPart();
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        try {
+            if (uploadId == null) {
+                uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .contentType(contentType)
+                        .build()).uploadId();
+            }
+
+            int partNumber = parts.size() + 1;
+            String etag = s3.uploadPart(UploadPartRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .partNumber(partNumber)
+                            .build(),
+                    RequestBody.fromBytes(Arrays.copyOf(buffer, pos))).eTag();
+
+            parts.add(CompletedPart.builder().partNumber(partNumber).eTag(etag).build());
+            pos = 0;
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException("Failed to upload part to s3://" + bucket + "/" + key, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (uploadId == null) {
+            s3.putObject(PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .contentType(contentType)
+                            .build(),
+                    RequestBody.fromBytes(Arrays.copyOf(buffer, pos)));
+            return;
+        }
+
+        if (pos > 0) {
+            uploadPart();
+        }
+        try {
+            s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build());
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException("Failed to complete upload to s3://" + bucket + "/" + key, e);
+        }
+    }
+
+    private void abort() {
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (RuntimeException ignored) {
+            // Best effort: the original error is what the caller needs to see
+        }
+    }
+}
@@ -1,49 +1,390 @@
 package assignment.util;
 
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
-
+/**
+ * S3 access for the whole application.
+ *
+ * Files are moved with the async client in -Ds3.partSizeMb parts (default 8, at least 5),
+ * -Ds3.transferParallelism parts (default 8) of one object at a time, so a large file is
+ * not limited to the speed of a single stream. Files of at least -Ds3.multipartThresholdMb
+ * (default 16) are uploaded as multipart parts. A download asks for the first part only,
+ * which is all of a small object; for a larger one the response tells its size and ETag,
+ * and the rest is fetched with ranged GETs of that same version. The *Async methods
+ * return right away, so a caller can overlap many transfers; the blocking ones wait and
+ * throw what the transfer failed with.
+ *
+ * Both clients keep up to -Ds3.maxConnections (default 64) connections open.
+ * Strings and streams still go through the blocking client.
+ *
+ * With -Dstorage=local nothing goes to S3: objects are files under -Dstorage.dir
+ * (default /tmp/objects), see LocalObjectStore.
+ */
 public class S3Utils {
 
+    // Null when objects live in S3
+    private static final LocalObjectStore local = "local".equals(System.getProperty("storage", "s3"))
+            ? new LocalObjectStore(System.getProperty("storage.dir", "/tmp/objects"))
+            : null;
+
+    private static final int MAX_CONNECTIONS = Integer.getInteger("s3.maxConnections", 64);
+
+    // S3 parts must be at least 5 MB (except the last), and there can be at most 10000
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int MAX_PARTS = 10_000;
+
+    private static final long PART_SIZE =
+            Math.max(MIN_PART_SIZE, Long.getLong("s3.partSizeMb", 8) * 1024 * 1024);
+    private static final long MULTIPART_THRESHOLD =
+            Math.max(PART_SIZE, Long.getLong("s3.multipartThresholdMb", 16) * 1024 * 1024);
+    private static final int TRANSFER_PARALLELISM = Math.max(1, Integer.getInteger("s3.transferParallelism", 8));
+
     private static final S3Client s3 = S3Client.builder()
             .region(AwsConfig.REGION)
+            .httpClientBuilder(ApacheHttpClient.builder()
+                    .maxConnections(MAX_CONNECTIONS)
+                    .tcpKeepAlive(true))
+            .build();
+
+    private static final S3AsyncClient s3Async = S3AsyncClient.builder()
+            .region(AwsConfig.REGION)
+            .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                    .maxConcurrency(MAX_CONNECTIONS)
+                    // Transfers beyond maxConcurrency wait for a connection instead of failing
+                    .maxPendingConnectionAcquires(10_000)
+                    .tcpKeepAlive(true))
             .build();
 
 
     public static void uploadFile(String bucket, String key, String filePath) {
+        if (local != null) {
+            local.uploadFile(bucket, key, filePath);
+            return;
+        }
+        Futures.join(uploadFileAsync(bucket, key, filePath));
+    }
+
+    public static void downloadFile(String bucket, String key, String localPath) {
+        if (local != null) {
+            local.downloadFile(bucket, key, localPath);
+            return;
+        }
+        Futures.join(downloadFileAsync(bucket, key, localPath));
+    }
+
+    /**
+     * Upload a local file, in parallel parts if it is large. Completes once the object is in S3.
+     */
+    public static CompletableFuture<Void> uploadFileAsync(String bucket, String key, String filePath) {
+        if (local != null) {
+            return completed(() -> local.uploadFile(bucket, key, filePath));
+        }
+        Path path = Path.of(filePath);
+        long size;
+        try {
+            size = Files.size(path);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(failure("upload " + filePath + " to", bucket, key, e));
+        }
+
+        CompletableFuture<Void> upload;
+        if (size < MULTIPART_THRESHOLD) {
+            upload = s3Async.putObject(b -> b.bucket(bucket).key(key), AsyncRequestBody.fromFile(path))
+                    .thenApply(response -> null);
+        } else {
+            upload = multipartUpload(bucket, key, path, size);
+        }
+        return upload.exceptionally(e -> {
+            throw failure("upload " + filePath + " to", bucket, key, e);
+        });
+    }
+
+    /**
+     * Download an object to a local file (replacing it), in parallel ranges if it is large.
+     */
+    public static CompletableFuture<Void> downloadFileAsync(String bucket, String key, String localPath) {
+        if (local != null) {
+            return completed(() -> local.downloadFile(bucket, key, localPath));
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(Path.of(localPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(failure("download", bucket, key, e, " to " + localPath));
+        }
+
+        // No HEAD first: the GET of the first part starts the download of any object right away
+        return s3Async.getObject(b -> b.bucket(bucket).key(key).range("bytes=0-" + (PART_SIZE - 1)),
+                        AsyncResponseTransformer.toPublisher())
+                .thenCompose(first -> {
+                    long size = objectSize(first.response());
+                    CompletableFuture<Void> firstPart = writeBody(channel, first, 0);
+                    if (size <= PART_SIZE) {
+                        return firstPart;
+                    }
+                    return CompletableFuture.allOf(firstPart,
+                            rangedDownload(channel, bucket, key, PART_SIZE, size, first.response().eTag()));
+                })
+                .exceptionally(e -> {
+                    // Only the first GET can ask past the end, of an empty object; the file is empty too
+                    Throwable cause = Futures.unwrap(e);
+                    if (cause instanceof S3Exception && ((S3Exception) cause).statusCode() == 416) {
+                        return null;
+                    }
+                    throw failure("download", bucket, key, e, " to " + localPath);
+                })
+                .whenComplete((v, e) -> {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Only ever written with positional writes, which are done by now
+                    }
+                });
+    }
+
+    public static void uploadString(String bucket, String key, String content) {
+        if (local != null) {
+            local.uploadString(bucket, key, content);
+            return;
+        }
         PutObjectRequest req = PutObjectRequest.builder()
                 .bucket(bucket)
                 .key(key)
                 .build();
 
-        s3.putObject(req, RequestBody.fromFile(Path.of(filePath)));
+        s3.putObject(req, RequestBody.fromString(content, StandardCharsets.UTF_8));
     }
 
-    public static void downloadFile(String bucket, String key, String localPath) {
+    public static String downloadString(String bucket, String key) {
+        if (local != null) {
+            return local.downloadString(bucket, key);
+        }
         GetObjectRequest req = GetObjectRequest.builder()
                 .bucket(bucket)
                 .key(key)
                 .build();
 
-        try (ResponseInputStream<?> s3Object = s3.getObject(req);
-             FileOutputStream out = new FileOutputStream(localPath)) {
+        try (ResponseInputStream<?> s3Object = s3.getObject(req)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            s3Object.transferTo(out);
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to download s3://" + bucket + "/" + key, e);
+        }
+    }
+
+    /**
+     * Stream the object's content, picking up where it left off if the connection breaks
+     * (see S3InputStream); the caller closes it.
+     */
+    public static InputStream openDownloadStream(String bucket, String key) {
+        if (local != null) {
+            return local.openDownloadStream(bucket, key);
+        }
+        return new S3InputStream(s3, bucket, key);
+    }
+
+    public static void deleteObject(String bucket, String key) {
+        if (local != null) {
+            local.deleteObject(bucket, key);
+            return;
+        }
+        s3.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .build());
+    }
+
+    /**
+     * Like downloadString, but returns null if the object does not exist.
+     */
+    public static String downloadStringIfExists(String bucket, String key) {
+        if (local != null) {
+            return local.downloadStringIfExists(bucket, key);
+        }
+        try {
+            return downloadString(bucket, key);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof NoSuchKeyException) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stream that uploads whatever is written to it to s3://bucket/key, part by part.
+     * The object is complete once the stream is closed.
+     */
+    public static OutputStream openUploadStream(String bucket, String key, String contentType) {
+        if (local != null) {
+            return local.openUploadStream(bucket, key);
+        }
+        return new S3UploadStream(s3, bucket, key, contentType);
+    }
+
+    /**
+     * A link to the object for a browser: its S3 URL, or a file: URL with -Dstorage=local.
+     */
+    public static String objectUrl(String bucket, String key) {
+        if (local != null) {
+            return local.url(bucket, key);
+        }
+        return "https://" + bucket + ".s3." + AwsConfig.REGION.id() + ".amazonaws.com/" + key;
+    }
+
+    // The local store's calls as a future, like the S3 ones
+    private static CompletableFuture<Void> completed(Runnable call) {
+        try {
+            call.run();
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = s3Object.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
+    private static CompletableFuture<Void> multipartUpload(String bucket, String key, Path path, long size) {
+        long partSize = partSize(size);
+        int partCount = (int) ((size + partSize - 1) / partSize);
+        CompletedPart[] parts = new CompletedPart[partCount];
+
+        return s3Async.createMultipartUpload(b -> b.bucket(bucket).key(key))
+                .thenCompose(created -> {
+                    String uploadId = created.uploadId();
+                    CompletableFuture<Void> upload = inParallel(partCount, i -> {
+                        long offset = i * partSize;
+                        long length = Math.min(partSize, size - offset);
+                        return s3Async.uploadPart(b -> b.bucket(bucket).key(key).uploadId(uploadId).partNumber(i + 1),
+                                        AsyncRequestBody.fromFile(c -> c.path(path).position(offset).numBytesToRead(length)))
+                                .thenAccept(response -> parts[i] = CompletedPart.builder()
+                                        .partNumber(i + 1)
+                                        .eTag(response.eTag())
+                                        .build());
+                    }).thenCompose(v -> s3Async.completeMultipartUpload(b -> b.bucket(bucket).key(key)
+                                    .uploadId(uploadId)
+                                    .multipartUpload(m -> m.parts(parts)))
+                            .thenApply(response -> null));
+
+                    return upload.whenComplete((v, e) -> {
+                        if (e != null) {
+                            // Best effort: the original error is what the caller needs to see
+                            s3Async.abortMultipartUpload(b -> b.bucket(bucket).key(key).uploadId(uploadId));
+                        }
+                    });
+                });
+    }
+
+    // Fetch bytes from .. size - 1 of the object, which must still have the given ETag
+    private static CompletableFuture<Void> rangedDownload(FileChannel channel, String bucket, String key,
+                                                          long from, long size, String etag) {
+        long partSize = partSize(size);
+        int partCount = (int) ((size - from + partSize - 1) / partSize);
+        return inParallel(partCount, i -> {
+            long first = from + i * partSize;
+            long last = Math.min(size, first + partSize) - 1;
+            // If-Match fails the range rather than mixing two versions of a replaced object
+            return s3Async.getObject(b -> b.bucket(bucket).key(key).range("bytes=" + first + "-" + last).ifMatch(etag),
+                            AsyncResponseTransformer.toPublisher())
+                    .thenCompose(body -> writeBody(channel, body, first));
+        });
+    }
+
+    private static CompletableFuture<Void> writeBody(FileChannel channel, ResponsePublisher<GetObjectResponse> body,
+                                                     long from) {
+        long[] position = {from};
+        return body.subscribe(buffer -> position[0] += write(channel, buffer, position[0]));
+    }
+
+    // Size of the whole object: after the '/' of the Content-Range, or all of it if the range was ignored
+    private static long objectSize(GetObjectResponse response) {
+        String range = response.contentRange();
+        if (range == null) {
+            return response.contentLength();
+        }
+        return Long.parseLong(range.substring(range.lastIndexOf('/') + 1));
+    }
+
+    private static int write(FileChannel channel, ByteBuffer buffer, long position) {
+        int written = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, position + written);
             }
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to download s3://" + bucket + "/" + key + " to " + localPath, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return written;
+    }
+
+    // Big enough that the object fits in MAX_PARTS parts
+    private static long partSize(long size) {
+        return Math.max(PART_SIZE, (size + MAX_PARTS - 1) / MAX_PARTS);
+    }
+
+    /**
+     * Run part(0) .. part(count - 1), TRANSFER_PARALLELISM at a time. Once one fails no
+     * more are started, and the result fails when the ones already running are done.
+     */
+    private static CompletableFuture<Void> inParallel(int count, IntFunction<CompletableFuture<?>> part) {
+        AtomicInteger next = new AtomicInteger();
+        CompletableFuture<?>[] lanes = new CompletableFuture<?>[Math.min(count, TRANSFER_PARALLELISM)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = lane(next, count, part);
+        }
+        return CompletableFuture.allOf(lanes);
+    }
+
+    // Runs parts one after the other until there are none left
+    private static CompletableFuture<Void> lane(AtomicInteger next, int count, IntFunction<CompletableFuture<?>> part) {
+        int i = next.getAndIncrement();
+        if (i >= count) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return part.apply(i)
+                .whenComplete((r, e) -> {
+                    if (e != null) {
+                        next.set(count);
+                    }
+                })
+                .thenCompose(r -> lane(next, count, part));
+    }
+
+    private static RuntimeException failure(String action, String bucket, String key, Throwable e) {
+        return failure(action, bucket, key, e, "");
+    }
+
+    private static RuntimeException failure(String action, String bucket, String key, Throwable e, String suffix) {
+        return new RuntimeException("Failed to " + action + " s3://" + bucket + "/" + key + suffix, Futures.unwrap(e));
     }
 }
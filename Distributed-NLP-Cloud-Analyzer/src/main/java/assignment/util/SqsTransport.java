@@ -0,0 +1,167 @@
+package assignment.util;
+
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * MessageTransport backed by Amazon SQS, on the async client. The blocking methods wait
+ * for the call; sendAsync and deleteAsync don't, so many calls can be in flight at once
+ * over up to -Dsqs.maxConnections (default 100) connections.
+ */
+public class SqsTransport implements MessageTransport {
+
+    private final SqsAsyncClient sqs = SqsAsyncClient.builder()
+            .region(AwsConfig.REGION)
+            .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                    // Long polls hold a connection for up to 20 seconds each
+                    .maxConcurrency(Integer.getInteger("sqs.maxConnections", 100))
+                    .maxPendingConnectionAcquires(10_000)
+                    .tcpKeepAlive(true))
+            .build();
+
+    @Override
+    public void send(String queueUrl, String body) {
+        Futures.join(sendAsync(queueUrl, body));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(String queueUrl, String body) {
+        SendMessageRequest request = SendMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageBody(body)
+                .build();
+
+        return sqs.sendMessage(request).thenApply(response -> null);
+    }
+
+    @Override
+    public List<Integer> sendBatch(String queueUrl, List<String> bodies) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < bodies.size(); i++) {
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .messageBody(bodies.get(i))
+                    .build());
+        }
+
+        SendMessageBatchRequest request = SendMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build();
+
+        SendMessageBatchResponse response = Futures.join(sqs.sendMessageBatch(request));
+
+        List<Integer> failed = new ArrayList<>();
+        for (BatchResultErrorEntry error : response.failed()) {
+            if (Boolean.TRUE.equals(error.senderFault())) {
+                // The message itself is bad (too big, invalid characters, ...)
+                throw new IllegalArgumentException("SQS rejected a message to " + queueUrl + ": "
+                        + error.code() + " " + error.message());
+            }
+            failed.add(Integer.parseInt(error.id()));
+        }
+        return failed;
+    }
+
+    @Override
+    public List<Message> receive(String queueUrl, int maxMessages, int waitSeconds, int visibilityTimeout) {
+        ReceiveMessageRequest request = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(maxMessages)
+                .waitTimeSeconds(waitSeconds)
+                .visibilityTimeout(visibilityTimeout)
+                // Lets consumers notice redeliveries
+                .messageSystemAttributeNames(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT)
+                .build();
+
+        ReceiveMessageResponse response = Futures.join(sqs.receiveMessage(request));
+        return response.messages();
+    }
+
+    @Override
+    public void delete(String queueUrl, Message message) {
+        Futures.join(deleteAsync(queueUrl, message));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String queueUrl, Message message) {
+        DeleteMessageRequest request = DeleteMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .receiptHandle(message.receiptHandle())
+                .build();
+
+        return sqs.deleteMessage(request).thenApply(response -> null);
+    }
+
+    @Override
+    public void changeVisibility(String queueUrl, Message message, int visibilityTimeout) {
+        ChangeMessageVisibilityRequest request = ChangeMessageVisibilityRequest.builder()
+                .queueUrl(queueUrl)
+                .receiptHandle(message.receiptHandle())
+                .visibilityTimeout(visibilityTimeout)
+                .build();
+
+        Futures.join(sqs.changeMessageVisibility(request));
+    }
+
+    @Override
+    public List<Integer> changeVisibilityBatch(String queueUrl, List<Message> messages, int visibilityTimeout) {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .receiptHandle(messages.get(i).receiptHandle())
+                    .visibilityTimeout(visibilityTimeout)
+                    .build());
+        }
+
+        ChangeMessageVisibilityBatchRequest request = ChangeMessageVisibilityBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build();
+
+        ChangeMessageVisibilityBatchResponse response = Futures.join(sqs.changeMessageVisibilityBatch(request));
+
+        List<Integer> failed = new ArrayList<>();
+        for (BatchResultErrorEntry error : response.failed()) {
+            failed.add(Integer.parseInt(error.id()));
+        }
+        return failed;
+    }
+
+    @Override
+    public QueueDepth depth(String queueUrl) {
+        GetQueueAttributesRequest request = GetQueueAttributesRequest.builder()
+                .queueUrl(queueUrl)
+                .attributeNames(
+                        QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES,
+                        QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE)
+                .build();
+
+        Map<QueueAttributeName, String> attributes = Futures.join(sqs.getQueueAttributes(request)).attributes();
+        return new QueueDepth(
+                Integer.parseInt(attributes.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, "0")),
+                Integer.parseInt(attributes.getOrDefault(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, "0")));
+    }
+}
@@ -1,51 +1,149 @@
 package assignment.util;
 
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sqs.SqsClient;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 import software.amazon.awssdk.services.sqs.model.Message;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
-
+/**
+ * Queue access for the whole application. Delegates to a MessageTransport chosen with
+ * -Dtransport=sqs|file (default sqs). The file transport keeps its queues under
+ * -Dtransport.dir (default /tmp/queues), where processes on one machine can share them.
+ * LocalRunner, which runs every component in one JVM, sets an InMemoryTransport instead.
+ */
 public class SqsUtils {
 
-    private static final SqsClient sqs = SqsClient.builder()
-            .region(AwsConfig.REGION)
-            .build();
+    // SQS limit for SendMessageBatch
+    public static final int MAX_BATCH_SIZE = 10;
+
+    // SQS limit for one message, and for the sum of all messages in one batch
+    public static final int MAX_MESSAGE_BYTES = 256 * 1024;
+
+    private static final int MAX_BATCH_ATTEMPTS = 5;
+
+    private static volatile MessageTransport transport = createTransport(System.getProperty("transport", "sqs"));
+
+    private static MessageTransport createTransport(String name) {
+        switch (name) {
+            case "sqs":
+                return new SqsTransport();
+            case "memory":
+                // Each process would get queues of its own and wait on them forever
+                throw new IllegalArgumentException("-Dtransport=memory only works with every component in one JVM: "
+                        + "run assignment.LocalRunner, or use -Dtransport=file for separate processes");
+            case "file":
+                return new LocalFileTransport(System.getProperty("transport.dir", "/tmp/queues"));
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + name);
+        }
+    }
+
+    public static MessageTransport getTransport() {
+        return transport;
+    }
+
+    public static void setTransport(MessageTransport newTransport) {
+        transport = newTransport;
+    }
 
 
     public static void sendMessage(String queueUrl, String body) {
-        SendMessageRequest request = SendMessageRequest.builder()
-                .queueUrl(queueUrl)
-                .messageBody(body)
-                .build();
+        transport.send(queueUrl, body);
+    }
+
+    public static CompletableFuture<Void> sendMessageAsync(String queueUrl, String body) {
+        return transport.sendAsync(queueUrl, body);
+    }
 
-        sqs.sendMessage(request);
+    /**
+     * Send up to 10 bodies in one SendMessageBatch call. Entries that fail are retried
+     * with backoff; throws if some are still failing after MAX_BATCH_ATTEMPTS, and right
+     * away if one was rejected as bad.
+     */
+    public static void sendMessageBatch(String queueUrl, List<String> bodies) {
+        List<String> pending = bodies;
+        for (int attempt = 1; ; attempt++) {
+            List<Integer> failed;
+            try {
+                failed = transport.sendBatch(queueUrl, pending);
+            } catch (IllegalArgumentException e) {
+                // A sender fault: the same message would be rejected again
+                throw e;
+            } catch (RuntimeException e) {
+                if (attempt >= MAX_BATCH_ATTEMPTS) {
+                    throw e;
+                }
+                failed = null;
+            }
+
+            if (failed != null) {
+                if (failed.isEmpty()) {
+                    return;
+                }
+                List<String> retry = new ArrayList<>(failed.size());
+                for (int i : failed) {
+                    retry.add(pending.get(i));
+                }
+                pending = retry;
+            }
+
+            if (attempt >= MAX_BATCH_ATTEMPTS) {
+                throw new RuntimeException(pending.size() + " messages could not be sent to " + queueUrl
+                        + " after " + attempt + " attempts");
+            }
+
+            try {
+                Thread.sleep(100L << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while retrying batch to " + queueUrl, e);
+            }
+        }
     }
 
     public static List<Message> receiveMessages(String queueUrl, int maxMessages, int waitSeconds) {
-        ReceiveMessageRequest request = ReceiveMessageRequest.builder()
-                .queueUrl(queueUrl)
-                .maxNumberOfMessages(maxMessages)
-                .waitTimeSeconds(waitSeconds)
-                .visibilityTimeout(300)
-                .build();
+        return receiveMessages(queueUrl, maxMessages, waitSeconds, 300);
+    }
 
-        ReceiveMessageResponse response = sqs.receiveMessage(request);
-        return response.messages();
+    public static List<Message> receiveMessages(String queueUrl, int maxMessages, int waitSeconds, int visibilityTimeout) {
+        return transport.receive(queueUrl, maxMessages, waitSeconds, visibilityTimeout);
+    }
+
+    /**
+     * How many times the message has been received, including this time (1 if unknown).
+     */
+    public static int receiveCount(Message message) {
+        String count = message.attributesAsStrings().get("ApproximateReceiveCount");
+        try {
+            return count == null ? 1 : Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return 1;
+        }
     }
 
  
     public static void deleteMessage(String queueUrl, Message message) {
-        DeleteMessageRequest request = DeleteMessageRequest.builder()
-                .queueUrl(queueUrl)
-                .receiptHandle(message.receiptHandle())
-                .build();
+        transport.delete(queueUrl, message);
+    }
+
+    public static CompletableFuture<Void> deleteMessageAsync(String queueUrl, Message message) {
+        return transport.deleteAsync(queueUrl, message);
+    }
+
+    public static void changeVisibility(String queueUrl, Message message, int visibilityTimeout) {
+        transport.changeVisibility(queueUrl, message, visibilityTimeout);
+    }
+
+    /**
+     * Change the visibility of up to 10 messages in one call.
+     * Returns the indexes (into messages) of the entries that failed.
+     */
+    public static List<Integer> changeVisibilityBatch(String queueUrl, List<Message> messages, int visibilityTimeout) {
+        return transport.changeVisibilityBatch(queueUrl, messages, visibilityTimeout);
+    }
 
-        sqs.deleteMessage(request);
+    public static QueueDepth queueDepth(String queueUrl) {
+        return transport.depth(queueUrl);
     }
 }
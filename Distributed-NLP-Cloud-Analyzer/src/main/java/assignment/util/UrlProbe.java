@@ -0,0 +1,68 @@
+package assignment.util;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Learns what it can about a source document with a HEAD request, without downloading it.
+ */
+public class UrlProbe {
+
+    public static class Info {
+        // -1 if the server did not say
+        public final long contentLength;
+
+        // Strong ETag, or null if the server sent none (or only a weak one)
+        public final String etag;
+
+        // true if the server said it serves byte ranges (Accept-Ranges: bytes)
+        public final boolean acceptsRanges;
+
+        public Info(long contentLength, String etag, boolean acceptsRanges) {
+            this.contentLength = contentLength;
+            this.etag = etag;
+            this.acceptsRanges = acceptsRanges;
+        }
+    }
+
+    public static final Info UNKNOWN = new Info(-1, null, false);
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    /**
+     * HEAD the URL. Never throws: anything that goes wrong gives UNKNOWN, and the
+     * worker will find out the real problem when it downloads the document.
+     */
+    public static Info head(String url) {
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setRequestMethod("HEAD");
+            conn.setConnectTimeout(TIMEOUT_MILLIS);
+            conn.setReadTimeout(TIMEOUT_MILLIS);
+
+            if (conn.getResponseCode() >= 400) {
+                return UNKNOWN;
+            }
+            return new Info(conn.getContentLengthLong(),
+                    strongEtag(conn.getHeaderField("ETag")),
+                    "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges")));
+        } catch (Exception e) {
+            return UNKNOWN;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Weak ETags (W/"...") only promise equivalent content, not identical bytes, so they are dropped.
+     */
+    public static String strongEtag(String etag) {
+        if (etag == null || etag.isEmpty() || etag.startsWith("W/")) {
+            return null;
+        }
+        return etag;
+    }
+}
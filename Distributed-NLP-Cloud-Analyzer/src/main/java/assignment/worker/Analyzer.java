@@ -0,0 +1,21 @@
+package assignment.worker;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes one analysis type for one sentence. Implementations are shared by all parser
+ * threads, so they must be thread-safe.
+ *
+ * Several analyzers can run on the same SentenceContext; whatever they compute from it
+ * (the PCFG tree, the tagger output) is computed once per sentence.
+ */
+public interface Analyzer {
+
+    // "POS", "CONSTITUENCY" or "DEPENDENCY"
+    String analysisType();
+
+    // Short engine name, e.g. "pcfg" or "tagger"
+    String engine();
+
+    void write(SentenceContext sentence, PrintWriter out);
+}
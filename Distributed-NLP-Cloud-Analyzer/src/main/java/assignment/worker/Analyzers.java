@@ -0,0 +1,98 @@
+package assignment.worker;
+
+import edu.stanford.nlp.parser.nndep.DependencyParser;
+import edu.stanford.nlp.tagger.maxent.MaxentTagger;
+
+/**
+ * Picks the Analyzer for each analysis type, as configured in WorkerConfig:
+ * -Danalysis.engine.pos=pcfg|tagger and -Danalysis.engine.dependency=pcfg|nndep.
+ * CONSTITUENCY always needs the full parse.
+ *
+ * The tagger and dependency models are only loaded if an engine uses them.
+ */
+public class Analyzers {
+
+    private static final Analyzer PCFG_POS = new PcfgAnalyzer("POS");
+    private static final Analyzer PCFG_CONSTITUENCY = new PcfgAnalyzer("CONSTITUENCY");
+    private static final Analyzer PCFG_DEPENDENCY = new PcfgAnalyzer("DEPENDENCY");
+    private static final Analyzer TAGGER_POS = new TaggerPosAnalyzer();
+    private static final Analyzer NNDEP_DEPENDENCY = new NndepDependencyAnalyzer();
+    private static final Analyzer FLAT_CONSTITUENCY = new FlatConstituencyAnalyzer();
+
+    // Holders, so each model is loaded on first use only
+    private static class TaggerHolder {
+        static final MaxentTagger TAGGER = new MaxentTagger(WorkerConfig.TAGGER_MODEL);
+    }
+
+    private static class DependencyParserHolder {
+        static final DependencyParser PARSER = DependencyParser.loadFromModelFile(WorkerConfig.NNDEP_MODEL);
+    }
+
+    /**
+     * The configured analyzer for this type. Throws IllegalArgumentException for an unknown type.
+     */
+    public static Analyzer forType(String analysisType) {
+        String type = analysisType.toUpperCase();
+        switch (type) {
+            case "POS":
+                return forEngine(type, WorkerConfig.POS_ENGINE);
+            case "CONSTITUENCY":
+                return PCFG_CONSTITUENCY;
+            case "DEPENDENCY":
+                return forEngine(type, WorkerConfig.DEPENDENCY_ENGINE);
+            default:
+                throw new IllegalArgumentException("Unknown analysis type: " + analysisType);
+        }
+    }
+
+    /**
+     * A specific engine for this type, e.g. to compare engines in a benchmark.
+     */
+    public static Analyzer forEngine(String analysisType, String engine) {
+        String type = analysisType.toUpperCase();
+        switch (type + "/" + engine) {
+            case "POS/pcfg":
+                return PCFG_POS;
+            case "POS/tagger":
+                return TAGGER_POS;
+            case "CONSTITUENCY/pcfg":
+                return PCFG_CONSTITUENCY;
+            case "DEPENDENCY/pcfg":
+                return PCFG_DEPENDENCY;
+            case "DEPENDENCY/nndep":
+                return NNDEP_DEPENDENCY;
+            default:
+                throw new IllegalArgumentException("No engine " + engine + " for analysis type " + analysisType);
+        }
+    }
+
+    /**
+     * The cheap engine for this type, used for sentences over the parse budget.
+     */
+    public static Analyzer fallbackFor(String analysisType) {
+        switch (analysisType.toUpperCase()) {
+            case "POS":
+                return TAGGER_POS;
+            case "CONSTITUENCY":
+                return FLAT_CONSTITUENCY;
+            case "DEPENDENCY":
+                return NNDEP_DEPENDENCY;
+            default:
+                throw new IllegalArgumentException("Unknown analysis type: " + analysisType);
+        }
+    }
+
+    public static boolean isSupported(String analysisType) {
+        return "POS".equalsIgnoreCase(analysisType)
+                || "CONSTITUENCY".equalsIgnoreCase(analysisType)
+                || "DEPENDENCY".equalsIgnoreCase(analysisType);
+    }
+
+    static MaxentTagger tagger() {
+        return TaggerHolder.TAGGER;
+    }
+
+    static DependencyParser dependencyParser() {
+        return DependencyParserHolder.PARSER;
+    }
+}
@@ -0,0 +1,33 @@
+package assignment.worker;
+
+import java.io.PrintWriter;
+
+import edu.stanford.nlp.ling.TaggedWord;
+
+/**
+ * A flat constituency tree, (ROOT (X (TAG word) ...)), built from the tagger's output.
+ * Only used as the cheap fallback for sentences over the parse budget; it is the same
+ * shape the PCFG parser itself falls back to when it cannot parse a sentence.
+ */
+public class FlatConstituencyAnalyzer implements Analyzer {
+
+    @Override
+    public String analysisType() {
+        return "CONSTITUENCY";
+    }
+
+    @Override
+    public String engine() {
+        return "flat";
+    }
+
+    @Override
+    public void write(SentenceContext sentence, PrintWriter out) {
+        StringBuilder tree = new StringBuilder("(ROOT (X");
+        for (TaggedWord tw : sentence.tagged()) {
+            tree.append(" (").append(tw.tag()).append(" ").append(tw.word()).append(")");
+        }
+        tree.append("))");
+        out.println(tree);
+    }
+}
@@ -0,0 +1,57 @@
+package assignment.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import assignment.messages.TaskBundleMessage;
+import assignment.messages.TaskDoneMessage;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * A received SQS message whose tasks are still moving through the pipeline.
+ * The message is reported and deleted once its last task finishes.
+ */
+class InFlightMessage {
+
+    final Message message;
+
+    // The bundle this message carried, or null for a single ANALYSIS_TASK
+    final TaskBundleMessage bundle;
+
+    // One entry per task, each holding the results of its grouped analyses
+    private final List<List<TaskDoneMessage>> results;
+    private final AtomicInteger remaining;
+
+    InFlightMessage(Message message, TaskBundleMessage bundle, int taskCount) {
+        this.message = message;
+        this.bundle = bundle;
+        this.results = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            results.add(null);
+        }
+        this.remaining = new AtomicInteger(taskCount);
+    }
+
+    /**
+     * Record the results of the task at the given index.
+     * Returns true for the call that completes the last task.
+     */
+    boolean complete(int index, List<TaskDoneMessage> taskResults) {
+        synchronized (results) {
+            results.set(index, taskResults);
+        }
+        return remaining.decrementAndGet() == 0;
+    }
+
+    // Only safe after complete() returned true
+    List<TaskDoneMessage> results() {
+        List<TaskDoneMessage> all = new ArrayList<>();
+        synchronized (results) {
+            for (List<TaskDoneMessage> taskResults : results) {
+                all.addAll(taskResults);
+            }
+        }
+        return all;
+    }
+}
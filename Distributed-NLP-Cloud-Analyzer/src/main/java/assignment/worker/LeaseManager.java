@@ -0,0 +1,261 @@
+package assignment.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import assignment.util.Log;
+import assignment.util.SqsUtils;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Keeps the task messages a worker is still working on invisible to other workers.
+ *
+ * Messages are received with a short visibility timeout (the lease) and a heartbeat
+ * extends it (10 messages per call) while their tasks are in the pipeline, so a slow
+ * document is no longer handed to a second worker, while a crashed worker's tasks come
+ * back within one lease.
+ * Messages that can't be finished here are handed back with visibility 0 right away.
+ * One held past maxLeaseSeconds is handed back too, and marked given up so the worker
+ * drops what is left of its tasks instead of finishing and reporting them a second time.
+ *
+ * Counts what the leases could not prevent: redelivered messages (received before, so
+ * possibly run twice) and leases lost because the heartbeat could not extend them in time.
+ * A message this worker handed back itself and receives again next is no redelivery.
+ */
+public class LeaseManager {
+
+    private static class Lease {
+        final Message message;
+        final long receivedAt = System.currentTimeMillis();
+
+        // When the message becomes visible again unless extended
+        volatile long expiresAt;
+
+        Lease(Message message, long expiresAt) {
+            this.message = message;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String queueUrl;
+    private final int leaseSeconds;
+    private final int heartbeatSeconds;
+    private final int maxLeaseSeconds;
+
+    // Keyed by receipt handle
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    // Receipt handles of messages handed back for being held too long, until forgotten
+    private final Set<String> givenUp = ConcurrentHashMap.newKeySet();
+
+    // Messages this worker handed back, by message id: their receive count then, and when
+    private final Map<String, long[]> releasedHere = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lease-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LongAdder extended = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder redelivered = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    public LeaseManager(String queueUrl, int leaseSeconds, int heartbeatSeconds, int maxLeaseSeconds) {
+        this.queueUrl = queueUrl;
+        this.leaseSeconds = leaseSeconds;
+        this.heartbeatSeconds = heartbeatSeconds;
+        this.maxLeaseSeconds = maxLeaseSeconds;
+    }
+
+    public static LeaseManager fromConfig(String queueUrl) {
+        return new LeaseManager(queueUrl,
+                WorkerConfig.LEASE_SECONDS,
+                WorkerConfig.HEARTBEAT_SECONDS,
+                WorkerConfig.MAX_LEASE_SECONDS);
+    }
+
+    public void start() {
+        heartbeat.scheduleWithFixedDelay(this::extendAll, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    // Visibility timeout to receive messages with
+    public int leaseSeconds() {
+        return leaseSeconds;
+    }
+
+    /**
+     * Start extending a message that was just received.
+     * Returns false if it was received before, so another worker may have run its tasks too.
+     */
+    public boolean acquire(Message message) {
+        leases.put(message.receiptHandle(),
+                new Lease(message, System.currentTimeMillis() + leaseSeconds * 1000L));
+
+        int receiveCount = SqsUtils.receiveCount(message);
+        long[] mine = releasedHere.remove(message.messageId());
+        if (mine != null && receiveCount == mine[0] + 1) {
+            // Nobody else received it since this worker handed it back
+            return true;
+        }
+        if (receiveCount > 1) {
+            redelivered.increment();
+            Log.warn("Message {} received {} times, its tasks may run twice", message.messageId(), receiveCount);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop extending a message that was deleted (or given up on).
+     * Returns false if its lease ran out on the way, so another worker may have it now.
+     */
+    public boolean complete(Message message) {
+        Lease lease = leases.remove(message.receiptHandle());
+        if (lease == null || System.currentTimeMillis() > lease.expiresAt) {
+            lost.increment();
+            Log.warn("Lease on message {} ran out before it was done", message.messageId());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hand a message back to the queue right away, so another worker can take it.
+     */
+    public void release(Message message) {
+        leases.remove(message.receiptHandle());
+        try {
+            SqsUtils.changeVisibility(queueUrl, message, 0);
+            released.increment();
+            releasedHere.put(message.messageId(),
+                    new long[] {SqsUtils.receiveCount(message), System.currentTimeMillis()});
+        } catch (Exception e) {
+            // It comes back at the end of its lease anyway
+            Log.warn("Failed to release message {}: {}", message.messageId(), e.getMessage());
+        }
+    }
+
+    /**
+     * On shutdown: stop the heartbeat and hand back every message still held.
+     */
+    public void releaseAll() {
+        heartbeat.shutdownNow();
+        int count = leases.size();
+        for (Lease lease : leases.values()) {
+            release(lease.message);
+        }
+        Log.info("Released {} in-flight messages", count);
+    }
+
+    /**
+     * True if the message was handed back for being held too long: another worker
+     * redoes its tasks, so they should not be finished here.
+     */
+    public boolean givenUp(Message message) {
+        return givenUp.contains(message.receiptHandle());
+    }
+
+    /**
+     * Called once the worker is done with a message it gave up on.
+     * Returns false if it was not given up.
+     */
+    public boolean forget(Message message) {
+        return givenUp.remove(message.receiptHandle());
+    }
+
+    public int held() {
+        return leases.size();
+    }
+
+    public long extended() {
+        return extended.sum();
+    }
+
+    public long released() {
+        return released.sum();
+    }
+
+    public long redelivered() {
+        return redelivered.sum();
+    }
+
+    public long lost() {
+        return lost.sum();
+    }
+
+    public long expired() {
+        return expired.sum();
+    }
+
+    public String stats() {
+        return "held=" + held()
+                + " extended=" + extended()
+                + " released=" + released()
+                + " redelivered=" + redelivered()
+                + " lost=" + lost()
+                + " expired=" + expired();
+    }
+
+    private void extendAll() {
+        long now = System.currentTimeMillis();
+        List<Lease> batch = new ArrayList<>(10);
+        for (Lease lease : leases.values()) {
+            if (now - lease.receivedAt + leaseSeconds * 1000L > maxLeaseSeconds * 1000L) {
+                // Held too long: let another worker try instead of holding it forever
+                Log.warn("Message {} held for {}s, giving it back", lease.message.messageId(), (now - lease.receivedAt) / 1000);
+                expired.increment();
+                givenUp.add(lease.message.receiptHandle());
+                release(lease.message);
+                continue;
+            }
+
+            batch.add(lease);
+            if (batch.size() == 10) {
+                extend(batch, now);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            extend(batch, now);
+        }
+
+        // By now a message handed back has been received again, here or elsewhere
+        releasedHere.values().removeIf(r -> now - r[1] > maxLeaseSeconds * 1000L);
+    }
+
+    // One ChangeMessageVisibilityBatch call for up to 10 leases
+    private void extend(List<Lease> batch, long now) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (Lease lease : batch) {
+            messages.add(lease.message);
+        }
+
+        List<Integer> failed;
+        try {
+            failed = SqsUtils.changeVisibilityBatch(queueUrl, messages, leaseSeconds);
+        } catch (Exception e) {
+            // Tried again on the next beat; complete() notices if the lease ran out meanwhile
+            Log.warn("Failed to extend {} messages: {}", messages.size(), e.getMessage());
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (failed.contains(i)) {
+                Log.warn("Failed to extend message {}", batch.get(i).message.messageId());
+                continue;
+            }
+            batch.get(i).expiresAt = now + leaseSeconds * 1000L;
+            extended.increment();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package assignment.worker;
+
+import java.io.PrintWriter;
+
+/**
+ * Typed dependencies from the neural transition-based dependency parser, run on the
+ * tagger's output. Much faster than converting a PCFG tree, with slightly different
+ * attachments on hard sentences. Output has the same format as the PCFG engine.
+ */
+public class NndepDependencyAnalyzer implements Analyzer {
+
+    @Override
+    public String analysisType() {
+        return "DEPENDENCY";
+    }
+
+    @Override
+    public String engine() {
+        return "nndep";
+    }
+
+    @Override
+    public void write(SentenceContext sentence, PrintWriter out) {
+        var gs = Analyzers.dependencyParser().predict(sentence.tagged());
+        PcfgAnalyzer.writeDependencies(gs.typedDependencies(), out);
+    }
+}
@@ -0,0 +1,81 @@
+package assignment.worker;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.List;
+
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.trees.GrammaticalStructureFactory;
+import edu.stanford.nlp.trees.PennTreebankLanguagePack;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreebankLanguagePack;
+import edu.stanford.nlp.trees.TypedDependency;
+
+/**
+ * The original engine: every analysis type is read off the full PCFG parse tree.
+ */
+public class PcfgAnalyzer implements Analyzer {
+
+    private static final TreebankLanguagePack TLP = new PennTreebankLanguagePack();
+    private static final GrammaticalStructureFactory GSF = TLP.grammaticalStructureFactory();
+
+    private final String analysisType;
+
+    public PcfgAnalyzer(String analysisType) {
+        this.analysisType = analysisType.toUpperCase();
+    }
+
+    @Override
+    public String analysisType() {
+        return analysisType;
+    }
+
+    @Override
+    public String engine() {
+        return "pcfg";
+    }
+
+    @Override
+    public void write(SentenceContext sentence, PrintWriter out) {
+        Tree parse = sentence.tree();
+        switch (analysisType) {
+            case "POS":
+                writePos(parse.taggedYield(), out);
+                break;
+            case "CONSTITUENCY":
+                writeConstituency(parse, out);
+                break;
+            case "DEPENDENCY":
+                writeDependency(parse, out);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown analysis type: " + analysisType);
+        }
+    }
+
+    static void writePos(List<TaggedWord> tagged, PrintWriter out) {
+        for (TaggedWord tw : tagged) {
+            out.print(tw.word());
+            out.print("/");
+            out.print(tw.tag());
+            out.print(" ");
+        }
+        out.println();
+    }
+
+    private static void writeConstituency(Tree parse, PrintWriter out) {
+        // Penn Treebank style LISP tree
+        out.println(parse.toString());
+    }
+
+    private static void writeDependency(Tree parse, PrintWriter out) {
+        var gs = GSF.newGrammaticalStructure(parse);
+        writeDependencies(gs.typedDependencies(), out);
+    }
+
+    static void writeDependencies(Collection<TypedDependency> deps, PrintWriter out) {
+        for (TypedDependency dep : deps) {
+            out.println(dep.toString());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package assignment.worker;
+
+import java.util.List;
+
+import edu.stanford.nlp.ling.HasWord;
+import edu.stanford.nlp.ling.Sentence;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.trees.Tree;
+
+/**
+ * One input line, plus whatever the analyzers computed from it so far.
+ * Used by a single parser thread.
+ */
+public class SentenceContext {
+
+    // The line split on whitespace; each line is treated as one sentence
+    public final String[] tokens;
+
+    private List<HasWord> words;
+    private Tree tree;
+    private List<TaggedWord> tagged;
+
+    public SentenceContext(String[] tokens) {
+        this.tokens = tokens;
+    }
+
+    public List<HasWord> words() {
+        if (words == null) {
+            words = Sentence.toWordList(tokens);
+        }
+        return words;
+    }
+
+    /**
+     * Full PCFG parse, from the sentence cache when possible.
+     */
+    public Tree tree() {
+        if (tree == null) {
+            tree = WorkerMain.parseSentence(tokens);
+        }
+        return tree;
+    }
+
+    /**
+     * Tags from the maxent tagger; much cheaper than a full parse.
+     */
+    public List<TaggedWord> tagged() {
+        if (tagged == null) {
+            tagged = Analyzers.tagger().tagSentence(words());
+        }
+        return tagged;
+    }
+}
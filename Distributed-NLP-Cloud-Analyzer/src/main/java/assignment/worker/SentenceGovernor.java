@@ -0,0 +1,227 @@
+package assignment.worker;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import assignment.messages.SentenceStats;
+import assignment.util.Log;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
+
+/**
+ * Keeps single sentences from stalling a worker. PCFG time grows roughly with the cube of
+ * the sentence length, so one 300-token table row can outlast the SQS visibility timeout.
+ *
+ * A sentence is over budget if it has more than MAX_SENTENCE_TOKENS tokens (when set),
+ * or if its analysis runs longer than SENTENCE_TIME_BUDGET_MS; then a watchdog
+ * interrupts the parser, which gives up with RuntimeInterruptedException. Over-budget
+ * sentences get the OVER_BUDGET_POLICY:
+ *   CHUNK    - analyze it as consecutive pieces of at most MAX_SENTENCE_TOKENS tokens
+ *              (half the sentence for one that was too slow); a piece that is still too
+ *              slow is skipped
+ *   FALLBACK - analyze it with the cheap engine for each type: tagger POS, nndep
+ *              dependencies, and a flat tree from the tagger for constituency
+ *   SKIP     - write a marker line instead of the analysis
+ */
+public class SentenceGovernor {
+
+    public enum Policy { CHUNK, FALLBACK, SKIP }
+
+    // One watchdog for the whole worker; it only interrupts threads, never parses
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sentence-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Counters for one task. Sentences of a task may be analyzed on several threads.
+     */
+    public static class Report {
+        final AtomicInteger sentences = new AtomicInteger();
+        final AtomicLong tokens = new AtomicLong();
+        final AtomicInteger overLength = new AtomicInteger();
+        final AtomicInteger overTime = new AtomicInteger();
+        final AtomicInteger chunked = new AtomicInteger();
+        final AtomicInteger fallback = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+
+        public SentenceStats toStats() {
+            SentenceStats stats = new SentenceStats();
+            stats.sentences = sentences.get();
+            stats.tokens = tokens.get();
+            stats.overLength = overLength.get();
+            stats.overTime = overTime.get();
+            stats.chunked = chunked.get();
+            stats.fallback = fallback.get();
+            stats.skipped = skipped.get();
+            return stats;
+        }
+    }
+
+    private final int maxTokens;
+    private final long budgetMillis;
+    private final Policy policy;
+
+    public SentenceGovernor(int maxTokens, long budgetMillis, Policy policy) {
+        this.maxTokens = maxTokens;
+        this.budgetMillis = budgetMillis;
+        this.policy = policy;
+    }
+
+    public static SentenceGovernor fromConfig() {
+        return new SentenceGovernor(
+                WorkerConfig.MAX_SENTENCE_TOKENS,
+                WorkerConfig.SENTENCE_TIME_BUDGET_MS,
+                Policy.valueOf(WorkerConfig.OVER_BUDGET_POLICY.toUpperCase()));
+    }
+
+    /**
+     * Every requested analysis of one sentence, each followed by the two blank lines between sentences.
+     */
+    public String[] analyze(List<Analyzer> analyzers, String[] tokens, Report report) {
+        report.sentences.incrementAndGet();
+        report.tokens.addAndGet(tokens.length);
+
+        if (maxTokens > 0 && tokens.length > maxTokens) {
+            report.overLength.incrementAndGet();
+            return overBudget(analyzers, tokens, maxTokens, report);
+        }
+
+        String[] texts = analyzeWithinBudget(analyzers, tokens);
+        if (texts != null) {
+            return texts;
+        }
+        report.overTime.incrementAndGet();
+        return overBudget(analyzers, tokens, Math.max(1, tokens.length / 2), report);
+    }
+
+    private String[] overBudget(List<Analyzer> analyzers, String[] tokens, int chunkTokens, Report report) {
+        switch (policy) {
+            case CHUNK:
+                report.chunked.incrementAndGet();
+                return chunk(analyzers, tokens, chunkTokens);
+            case FALLBACK:
+                try {
+                    String[] texts = analyzeSentence(fallbacks(analyzers), tokens);
+                    report.fallback.incrementAndGet();
+                    return texts;
+                } catch (RuntimeException | LinkageError e) {
+                    // No fallback models on this worker; don't fail the whole document for it
+                    Log.warn("Fallback analysis failed: {}", e.getMessage());
+                }
+                report.skipped.incrementAndGet();
+                return skipped(analyzers.size(), tokens.length);
+            default:
+                report.skipped.incrementAndGet();
+                return skipped(analyzers.size(), tokens.length);
+        }
+    }
+
+    private String[] chunk(List<Analyzer> analyzers, String[] tokens, int chunkTokens) {
+        StringBuilder[] texts = new StringBuilder[analyzers.size()];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = new StringBuilder();
+        }
+
+        for (int from = 0; from < tokens.length; from += chunkTokens) {
+            String[] piece = Arrays.copyOfRange(tokens, from, Math.min(tokens.length, from + chunkTokens));
+            String[] pieceTexts = analyzeWithinBudget(analyzers, piece);
+            if (pieceTexts == null) {
+                pieceTexts = skipped(analyzers.size(), piece.length);
+            }
+            for (int i = 0; i < texts.length; i++) {
+                texts[i].append(pieceTexts[i]);
+            }
+        }
+
+        String[] result = new String[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            result[i] = texts[i].toString();
+        }
+        return result;
+    }
+
+    /**
+     * The analyses, or null if they ran past the time budget.
+     */
+    private String[] analyzeWithinBudget(List<Analyzer> analyzers, String[] tokens) {
+        if (budgetMillis <= 0) {
+            return analyzeSentence(analyzers, tokens);
+        }
+
+        Thread thread = Thread.currentThread();
+        Object lock = new Object();
+        boolean[] state = {false, false}; // done, fired
+
+        ScheduledFuture<?> alarm = WATCHDOG.schedule(() -> {
+            synchronized (lock) {
+                if (!state[0]) {
+                    state[1] = true;
+                    thread.interrupt();
+                }
+            }
+        }, budgetMillis, TimeUnit.MILLISECONDS);
+
+        try {
+            return analyzeSentence(analyzers, tokens);
+        } catch (RuntimeInterruptedException e) {
+            synchronized (lock) {
+                if (!state[1]) {
+                    // Interrupted by someone else (shutdown, cancelled document): pass it on
+                    throw e;
+                }
+            }
+            return null;
+        } finally {
+            alarm.cancel(false);
+            synchronized (lock) {
+                state[0] = true;
+                if (state[1]) {
+                    // Our interrupt must not leak into whatever this thread does next
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    static String[] analyzeSentence(List<Analyzer> analyzers, String[] tokens) {
+        SentenceContext sentence = new SentenceContext(tokens);
+
+        String[] texts = new String[analyzers.size()];
+        for (int i = 0; i < analyzers.size(); i++) {
+            StringWriter text = new StringWriter();
+            PrintWriter out = new PrintWriter(text);
+            analyzers.get(i).write(sentence, out);
+
+            out.println();
+            out.println();
+            out.flush();
+            texts[i] = text.toString();
+        }
+        return texts;
+    }
+
+    private static List<Analyzer> fallbacks(List<Analyzer> analyzers) {
+        List<Analyzer> cheap = new ArrayList<>();
+        for (Analyzer a : analyzers) {
+            cheap.add(Analyzers.fallbackFor(a.analysisType()));
+        }
+        return cheap;
+    }
+
+    private static String[] skipped(int count, int tokens) {
+        String[] texts = new String[count];
+        Arrays.fill(texts, "# skipped: sentence of " + tokens + " tokens is over the parse budget"
+                + System.lineSeparator() + System.lineSeparator() + System.lineSeparator());
+        return texts;
+    }
+}
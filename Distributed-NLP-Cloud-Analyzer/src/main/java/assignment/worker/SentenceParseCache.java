@@ -0,0 +1,310 @@
+package assignment.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeFactory;
+
+/**
+ * Sentence -> parse tree cache kept in a memory-mapped file, so it lives off the heap
+ * and survives worker restarts. Boilerplate lines (headers, license text) that show up
+ * in many documents are only parsed once.
+ *
+ * File layout:
+ *   header (64 bytes): magic, format, namespace hash, slot count, data size, write position
+ *   index: one 16-byte slot per hash bucket: key hash, logical position of the entry + 1
+ *   data: a ring of entries: length, key hash, CRC32, key length, key bytes, tree bytes
+ *
+ * The index is direct-mapped, so a new sentence simply replaces whatever shared its slot.
+ * The write position only grows; the ring holds the last dataBytes of it, so an entry is
+ * evicted once it falls more than dataBytes behind. Every entry is checked against its
+ * key and CRC before use, which also covers entries torn by a crash mid-write.
+ *
+ * Trees are stored as a preorder list of labels with child counts and rebuilt as
+ * CoreLabel trees, so any output type can be written from a cached parse.
+ */
+public class SentenceParseCache {
+
+    private static final int MAGIC = 0x53504331; // "SPC1"
+    private static final int FORMAT = 1;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int WRITE_POS_OFFSET = 24;
+    private static final int SLOT_BYTES = 16;
+    private static final int ENTRY_HEADER_BYTES = 20;
+
+    private static final TreeFactory TREE_FACTORY = new LabeledScoredTreeFactory(CoreLabel.factory());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int slotCount;
+    private final int dataStart;
+    private final int dataBytes;
+
+    // Logical position of the next entry; guarded by this
+    private long writePos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Open (or create) the cache file. If it was written with another layout or namespace
+     * (for example another parser model), it is cleared.
+     */
+    public SentenceParseCache(Path file, int dataBytes, String namespace) throws IOException {
+        this.dataBytes = dataBytes;
+        this.slotCount = Math.max(1024, dataBytes / 256);
+        this.dataStart = HEADER_BYTES + slotCount * SLOT_BYTES;
+
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Two workers on one box must not share the file
+        FileLock lock = channel.tryLock();
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Parse cache " + file + " is used by another process");
+        }
+
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) dataStart + dataBytes);
+
+        long namespaceHash = hash(namespace.getBytes(StandardCharsets.UTF_8));
+        if (map.getInt(0) == MAGIC
+                && map.getInt(4) == FORMAT
+                && map.getLong(8) == namespaceHash
+                && map.getInt(16) == slotCount
+                && map.getInt(20) == dataBytes) {
+            writePos = map.getLong(WRITE_POS_OFFSET);
+        } else {
+            // New file or incompatible contents: forget every entry
+            for (int i = 0; i < slotCount; i++) {
+                map.putLong(HEADER_BYTES + i * SLOT_BYTES + 8, 0);
+            }
+            map.putInt(0, MAGIC);
+            map.putInt(4, FORMAT);
+            map.putLong(8, namespaceHash);
+            map.putInt(16, slotCount);
+            map.putInt(20, dataBytes);
+            map.putLong(WRITE_POS_OFFSET, 0);
+            writePos = 0;
+        }
+    }
+
+    /**
+     * The cached parse of this sentence (tokens joined by single spaces), or null.
+     */
+    public Tree get(String sentence) {
+        byte[] key = sentence.getBytes(StandardCharsets.UTF_8);
+        long h = hash(key);
+
+        byte[] treeBytes;
+        synchronized (this) {
+            treeBytes = read(h, key);
+        }
+
+        if (treeBytes == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        bytesSaved.add(treeBytes.length);
+        return decode(treeBytes);
+    }
+
+    public void put(String sentence, Tree parse) {
+        byte[] key = sentence.getBytes(StandardCharsets.UTF_8);
+        byte[] treeBytes = encode(parse);
+
+        int entryBytes = ENTRY_HEADER_BYTES + key.length + treeBytes.length;
+        if (entryBytes > dataBytes / 4) {
+            // Not worth pushing a quarter of the cache out for one sentence
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(treeBytes);
+
+        long h = hash(key);
+
+        synchronized (this) {
+            int offset = (int) (writePos % dataBytes);
+            if (offset + entryBytes > dataBytes) {
+                // Entries don't wrap; skip the tail of the ring
+                writePos += dataBytes - offset;
+                offset = 0;
+            }
+
+            int p = dataStart + offset;
+            map.putInt(p, entryBytes);
+            map.putLong(p + 4, h);
+            map.putInt(p + 12, (int) crc.getValue());
+            map.putInt(p + 16, key.length);
+            map.put(p + ENTRY_HEADER_BYTES, key);
+            map.put(p + ENTRY_HEADER_BYTES + key.length, treeBytes);
+
+            // The slot is updated last, so it never points at an entry that is not written yet
+            long entryPos = writePos;
+            writePos += entryBytes;
+            map.putLong(WRITE_POS_OFFSET, writePos);
+
+            int slot = slotOffset(h);
+            map.putLong(slot, h);
+            map.putLong(slot + 8, entryPos + 1);
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    // Encoded tree bytes answered from the cache instead of being parsed again
+    public long bytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    public String stats() {
+        long h = hits();
+        long total = h + misses();
+        return "hits=" + h
+                + " misses=" + misses()
+                + " hitRate=" + (total == 0 ? 0 : (100 * h / total)) + "%"
+                + " bytesSaved=" + bytesSaved();
+    }
+
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+
+    // Caller holds the lock
+    private byte[] read(long h, byte[] key) {
+        int slot = slotOffset(h);
+        long stored = map.getLong(slot + 8);
+        if (stored == 0 || map.getLong(slot) != h) {
+            return null;
+        }
+
+        long entryPos = stored - 1;
+        if (entryPos < writePos - dataBytes || entryPos >= writePos) {
+            // Overwritten by newer entries
+            return null;
+        }
+
+        int p = dataStart + (int) (entryPos % dataBytes);
+        int entryBytes = map.getInt(p);
+        int keyLength = map.getInt(p + 16);
+        if (map.getLong(p + 4) != h
+                || keyLength != key.length
+                || entryBytes < ENTRY_HEADER_BYTES + keyLength
+                || entryBytes > dataBytes - (p - dataStart)) {
+            return null;
+        }
+
+        byte[] storedKey = new byte[keyLength];
+        byte[] treeBytes = new byte[entryBytes - ENTRY_HEADER_BYTES - keyLength];
+        map.get(p + ENTRY_HEADER_BYTES, storedKey);
+        map.get(p + ENTRY_HEADER_BYTES + keyLength, treeBytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(storedKey);
+        crc.update(treeBytes);
+        if ((int) crc.getValue() != map.getInt(p + 12) || !Arrays.equals(storedKey, key)) {
+            return null;
+        }
+        return treeBytes;
+    }
+
+    private int slotOffset(long h) {
+        return HEADER_BYTES + (int) Long.remainderUnsigned(h, slotCount) * SLOT_BYTES;
+    }
+
+    // 64-bit FNV-1a
+    private static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Preorder: each node is its label (modified UTF-8) followed by its number of children.
+     */
+    static byte[] encode(Tree tree) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            encode(tree, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void encode(Tree node, DataOutputStream out) throws IOException {
+        out.writeUTF(node.value());
+        Tree[] children = node.children();
+        out.writeShort(children.length);
+        for (Tree child : children) {
+            encode(child, out);
+        }
+    }
+
+    static Tree decode(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return decode(in);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Tree decode(DataInputStream in) throws IOException {
+        String value = in.readUTF();
+        int childCount = in.readUnsignedShort();
+
+        if (childCount == 0) {
+            CoreLabel word = new CoreLabel();
+            word.setValue(value);
+            word.setWord(value);
+            return TREE_FACTORY.newLeaf(word);
+        }
+
+        List<Tree> children = new ArrayList<>(childCount);
+        for (int i = 0; i < childCount; i++) {
+            children.add(decode(in));
+        }
+
+        CoreLabel node = new CoreLabel();
+        node.setValue(value);
+        if (childCount == 1 && children.get(0).isLeaf()) {
+            // Preterminal: its label is the word's tag
+            node.setTag(value);
+            ((CoreLabel) children.get(0).label()).setTag(value);
+        }
+        return TREE_FACTORY.newTreeNode(node, children);
+    }
+}
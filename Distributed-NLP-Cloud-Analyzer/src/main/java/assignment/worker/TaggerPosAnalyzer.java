@@ -0,0 +1,26 @@
+package assignment.worker;
+
+import java.io.PrintWriter;
+
+/**
+ * POS tags from the maxent tagger: linear time per sentence, instead of a cubic-time
+ * PCFG parse whose tree would be thrown away except for its tags.
+ * Output has the same word/TAG format as the PCFG engine.
+ */
+public class TaggerPosAnalyzer implements Analyzer {
+
+    @Override
+    public String analysisType() {
+        return "POS";
+    }
+
+    @Override
+    public String engine() {
+        return "tagger";
+    }
+
+    @Override
+    public void write(SentenceContext sentence, PrintWriter out) {
+        PcfgAnalyzer.writePos(sentence.tagged(), out);
+    }
+}
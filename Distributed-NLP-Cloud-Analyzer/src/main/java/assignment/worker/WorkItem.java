@@ -0,0 +1,163 @@
+package assignment.worker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import assignment.messages.AnalysisTaskMessage;
+import assignment.messages.SentenceStats;
+import assignment.messages.StageTimings;
+import assignment.messages.TaskDoneMessage;
+import assignment.util.Log;
+
+/**
+ * One source document moving through the worker pipeline (download -> parse -> upload),
+ * with every analysis the manager grouped onto it.
+ */
+class WorkItem {
+
+    // The SQS message this task came from, and the task's position in it
+    final InFlightMessage source;
+    final int index;
+
+    final AnalysisTaskMessage task;
+
+    // task itself plus the grouped analyses of the same document; one output and one result each
+    final List<AnalysisTaskMessage> analyses;
+
+    final String inputPath;
+    final String[] outputPaths;
+
+    // Set by the download stage: SHA-256 of the document and its strong ETag (or null)
+    String contentHash;
+    String etag;
+
+    // Set by the parse stage: sentences over the per-sentence budgets
+    SentenceStats sentenceStats;
+
+    // Filled in by each stage; shared by the results of all the analyses
+    final StageTimings timings = new StageTimings();
+
+    // Filled as each analysis fails, is answered by the result cache or is uploaded;
+    // later stages only work on the analyses that are still null
+    final TaskDoneMessage[] results;
+
+    WorkItem(InFlightMessage source, int index, AnalysisTaskMessage task) {
+        this.source = source;
+        this.index = index;
+        this.task = task;
+        this.analyses = task.analyses();
+        // Shards of one document may be on the same worker at once
+        String shard = task.sharded() ? "-s" + task.shardIndex : "";
+        this.inputPath = "/tmp/worker-" + task.jobId + "-" + task.taskId + shard + ".txt";
+        this.outputPaths = new String[analyses.size()];
+        for (int i = 0; i < outputPaths.length; i++) {
+            outputPaths[i] = "/tmp/output-" + task.jobId + "-" + analyses.get(i).taskId + shard + ".txt";
+        }
+        this.results = new TaskDoneMessage[analyses.size()];
+    }
+
+    /**
+     * Indexes of the analyses that still have no result.
+     */
+    List<Integer> pending() {
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                pending.add(i);
+            }
+        }
+        return pending;
+    }
+
+    boolean finished() {
+        return pending().isEmpty();
+    }
+
+    List<TaskDoneMessage> results() {
+        return Arrays.asList(results);
+    }
+
+    // Fail every analysis that has no result yet
+    void fail(Exception e) {
+        for (int i : pending()) {
+            fail(i, e);
+        }
+    }
+
+    void fail(int i, Exception e) {
+        AnalysisTaskMessage a = analyses.get(i);
+        Log.warn("Task {} failed: {}", a.taskId, e.getMessage());
+        results[i] = new TaskDoneMessage(
+                a.jobId,
+                a.taskId,
+                a.analysisType,
+                a.sourceUrl,
+                false,
+                null,
+                null,
+                e.getMessage()
+        );
+        setShard(results[i], a);
+        results[i].timings = timings;
+    }
+
+    void succeed(int i, String resultKey) {
+        AnalysisTaskMessage a = analyses.get(i);
+        results[i] = new TaskDoneMessage(
+                a.jobId,
+                a.taskId,
+                a.analysisType,
+                a.sourceUrl,
+                true,
+                a.resultBucket,
+                resultKey,
+                null
+        );
+        setShard(results[i], a);
+        results[i].sentenceStats = sentenceStats;
+        results[i].timings = timings;
+    }
+
+    // Point at a result an earlier task already uploaded
+    void succeedFromCache(int i, String resultBucket, String resultKey) {
+        AnalysisTaskMessage a = analyses.get(i);
+        results[i] = new TaskDoneMessage(
+                a.jobId,
+                a.taskId,
+                a.analysisType,
+                a.sourceUrl,
+                true,
+                resultBucket,
+                resultKey,
+                null
+        );
+        results[i].cacheHit = true;
+        results[i].timings = timings;
+    }
+
+    /**
+     * The analyses were parsed together, so their results share one SentenceStats and one
+     * StageTimings. Mark all but the first result that has the stats (or the first result),
+     * so the manager counts them once.
+     */
+    void markSharedParse() {
+        int counted = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null && results[i].sentenceStats != null) {
+                counted = i;
+                break;
+            }
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (i != counted && results[i] != null) {
+                results[i].sharedParse = true;
+            }
+        }
+    }
+
+    private static void setShard(TaskDoneMessage result, AnalysisTaskMessage a) {
+        result.shardIndex = a.shardIndex;
+        result.shardCount = a.shardCount;
+    }
+}
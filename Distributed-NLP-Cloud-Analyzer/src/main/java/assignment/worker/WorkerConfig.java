@@ -0,0 +1,83 @@
+package assignment.worker;
+
+/**
+ * Worker tuning knobs. Each value can be overridden with a -D system property
+ * in run-worker.sh.
+ */
+public class WorkerConfig {
+
+    // Number of parser threads. Defaults to one per core.
+    public static final int PARSER_THREADS =
+            Integer.getInteger("worker.parserThreads", Runtime.getRuntime().availableProcessors());
+
+    // Threads for the download and upload stages. They mostly wait on the network,
+    // so there can be many more of them than cores.
+    public static final int IO_THREADS =
+            Integer.getInteger("worker.ioThreads", 4 * PARSER_THREADS);
+
+    // How many downloaded tasks may wait for a free parser thread
+    public static final int PREFETCH_TASKS =
+            Integer.getInteger("worker.prefetchTasks", PARSER_THREADS);
+
+    // Tasks held by the worker (prefetched + parsing + waiting for upload) above which it stops
+    // receiving. One bundle can go past it; the worker then waits until it drains.
+    public static final int MAX_IN_FLIGHT = PREFETCH_TASKS + 2 * PARSER_THREADS;
+
+    // SQS never returns more than 10 messages per receive
+    public static final int MAX_MESSAGES_PER_RECEIVE = 10;
+
+    // Threads that parse the sentences of one document in parallel (output stays in order).
+    // 0 parses each document sequentially on its parser thread.
+    public static final int SENTENCE_THREADS =
+            Integer.getInteger("worker.sentenceThreads", PARSER_THREADS);
+
+    // Sentences of one document that may be parsed ahead of the next one to be written
+    public static final int REORDER_WINDOW =
+            Integer.getInteger("worker.reorderWindow", 4 * Math.max(1, SENTENCE_THREADS));
+
+    // Per-sentence budgets (0 = no limit) and what to do with sentences over them:
+    // chunk | fallback | skip. See SentenceGovernor. By default only the time budget
+    // applies, so long sentences that parse in time keep their full parse.
+    public static final int MAX_SENTENCE_TOKENS =
+            Integer.getInteger("worker.maxSentenceTokens", 0);
+    public static final long SENTENCE_TIME_BUDGET_MS =
+            Long.getLong("worker.sentenceTimeBudgetMs", 30_000);
+    public static final String OVER_BUDGET_POLICY =
+            System.getProperty("worker.overBudgetPolicy", "chunk");
+
+    // Engine per analysis type: POS = pcfg | tagger, DEPENDENCY = pcfg | nndep.
+    // The manager must be started with the same values, they are part of the result cache keys.
+    public static final String POS_ENGINE =
+            System.getProperty("analysis.engine.pos", "pcfg");
+    public static final String DEPENDENCY_ENGINE =
+            System.getProperty("analysis.engine.dependency", "pcfg");
+
+    // Models for the tagger and nndep engines (from the CoreNLP models jar)
+    public static final String TAGGER_MODEL = System.getProperty("worker.taggerModel",
+            "edu/stanford/nlp/models/pos-tagger/english-left3words/english-left3words-distsim.tagger");
+    public static final String NNDEP_MODEL = System.getProperty("worker.nndepModel",
+            "edu/stanford/nlp/models/parser/nndep/english_UD.gz");
+
+    // Memory-mapped sentence parse cache: file and size of its data ring (0 turns it off, at most 1024)
+    public static final String PARSE_CACHE_FILE =
+            System.getProperty("worker.parseCacheFile", "/tmp/sentence-parse-cache.bin");
+    public static final int PARSE_CACHE_MB =
+            Math.min(1024, Integer.getInteger("worker.parseCacheMb", 256));
+
+    // Visibility timeout of received task messages. While a message's tasks are still in the
+    // pipeline it is extended every HEARTBEAT_SECONDS; a crashed worker's tasks come back after it.
+    public static final int LEASE_SECONDS =
+            Integer.getInteger("worker.leaseSeconds", 120);
+    public static final int HEARTBEAT_SECONDS =
+            Integer.getInteger("worker.heartbeatSeconds", Math.max(1, LEASE_SECONDS / 3));
+
+    // A message held longer than this is no longer extended and goes back to the queue,
+    // and what is left of its tasks here is dropped
+    // (SQS allows at most 12 hours from receipt)
+    public static final int MAX_LEASE_SECONDS =
+            Integer.getInteger("worker.maxLeaseSeconds", 6 * 3600);
+
+    // Port of the Prometheus /metrics endpoint (0 turns it off)
+    public static final int METRICS_PORT =
+            Integer.getInteger("worker.metricsPort", 9401);
+}
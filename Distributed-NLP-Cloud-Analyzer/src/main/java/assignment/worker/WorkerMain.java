@@ -1,29 +1,49 @@
 package assignment.worker;
 
 import assignment.messages.AnalysisTaskMessage;
+import assignment.messages.SentenceStats;
+import assignment.messages.BundleDoneMessage;
+import assignment.messages.MessageCodec;
+import assignment.messages.TaskBundleMessage;
 import assignment.messages.TaskDoneMessage;
 import assignment.util.AwsConfig;
-import assignment.util.JsonUtils;
+import assignment.util.CachedResult;
+import assignment.util.Futures;
+import assignment.util.LatencyHistogram;
+import assignment.util.Log;
+import assignment.util.Metrics;
+import assignment.util.ResultCache;
 import assignment.util.S3Utils;
 import assignment.util.SqsUtils;
+import assignment.util.UrlProbe;
 import edu.stanford.nlp.ling.HasWord;
 import edu.stanford.nlp.ling.Sentence;
+import edu.stanford.nlp.parser.common.ParserQuery;
+import edu.stanford.nlp.parser.common.ParserUtils;
 import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
-import edu.stanford.nlp.trees.GrammaticalStructureFactory;
-import edu.stanford.nlp.trees.PennTreebankLanguagePack;
 import edu.stanford.nlp.trees.Tree;
-import edu.stanford.nlp.trees.TreebankLanguagePack;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
 import software.amazon.awssdk.services.sqs.model.Message;
 
 import java.io.*;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
-import java.util.Collection;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
-
-
-import edu.stanford.nlp.ling.TaggedWord;
-import edu.stanford.nlp.trees.TypedDependency;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class WorkerMain {
@@ -32,105 +52,584 @@ public class WorkerMain {
     private static final LexicalizedParser PARSER =
             LexicalizedParser.loadModel("edu/stanford/nlp/models/lexparser/englishPCFG.ser.gz");
 
-    private static final TreebankLanguagePack TLP = new PennTreebankLanguagePack();
-    private static final GrammaticalStructureFactory GSF = TLP.grammaticalStructureFactory();
-
+    // Results of earlier tasks, shared with the manager; null when caching is off
+    private static final ResultCache RESULT_CACHE = ResultCache.create();
+
+    // Parses of sentences seen before, kept off-heap across restarts; null when disabled
+    private static final SentenceParseCache PARSE_CACHE = openParseCache();
+
+    // Parses sentences of a document in parallel; shared by all documents, null when disabled.
+    // Daemon threads, so benchmarks that call runAnalysis can exit.
+    private static final ExecutorService SENTENCE_POOL = WorkerConfig.SENTENCE_THREADS <= 0 ? null
+            : Executors.newFixedThreadPool(WorkerConfig.SENTENCE_THREADS, r -> {
+                Thread t = new Thread(r, "sentence-parser");
+                t.setDaemon(true);
+                return t;
+            });
+
+    // Length and time budgets for single sentences
+    private static final SentenceGovernor GOVERNOR = SentenceGovernor.fromConfig();
+
+    // Exported on /metrics; counters only, rates are left to the scraper
+    private static final Metrics.Counter TASKS_SUCCEEDED =
+            Metrics.counter("worker_tasks_total{result=\"success\"}", "Analyses finished, by result");
+    private static final Metrics.Counter TASKS_FAILED =
+            Metrics.counter("worker_tasks_total{result=\"failed\"}", "Analyses finished, by result");
+    private static final Metrics.Counter TASKS_CACHED =
+            Metrics.counter("worker_tasks_total{result=\"cached\"}", "Analyses finished, by result");
+    private static final Metrics.Counter DOCUMENTS_PARSED =
+            Metrics.counter("worker_documents_parsed_total", "Documents parsed");
+    private static final Metrics.Counter SENTENCES_PARSED =
+            Metrics.counter("worker_sentences_parsed_total", "Sentences parsed");
+    private static final Metrics.Counter TOKENS_PARSED =
+            Metrics.counter("worker_tokens_parsed_total", "Tokens in the sentences parsed");
+    private static final Metrics.Counter RESULT_CACHE_HITS =
+            Metrics.counter("worker_result_cache_lookups_total{result=\"hit\"}", "Result cache lookups, by result");
+    private static final Metrics.Counter RESULT_CACHE_MISSES =
+            Metrics.counter("worker_result_cache_lookups_total{result=\"miss\"}", "Result cache lookups, by result");
+
+    private static final LatencyHistogram DOWNLOAD_MS = new LatencyHistogram();
+    private static final LatencyHistogram PARSE_MS = new LatencyHistogram();
+    private static final LatencyHistogram UPLOAD_MS = new LatencyHistogram();
+
+    // Stage pools: downloads and uploads are network bound, parsing is CPU bound.
+    // All parser threads share the single PARSER above.
+    private final ExecutorService downloadPool = Executors.newFixedThreadPool(WorkerConfig.IO_THREADS);
+    private final ExecutorService parserPool = Executors.newFixedThreadPool(WorkerConfig.PARSER_THREADS);
+    private final ExecutorService uploadPool = Executors.newFixedThreadPool(WorkerConfig.IO_THREADS);
+
+    // Bounded hand-off queues between the stages. parseQueue holds inputs that were
+    // prefetched while the parser threads were busy with earlier tasks.
+    private final BlockingQueue<WorkItem> parseQueue = new ArrayBlockingQueue<>(WorkerConfig.PREFETCH_TASKS);
+    private final BlockingQueue<WorkItem> uploadQueue = new ArrayBlockingQueue<>(WorkerConfig.PARSER_THREADS);
+
+    // Tasks received but not yet reported. We only receive while this is below MAX_IN_FLIGHT;
+    // a bundle may take it over the limit, and then we wait until it drains.
+    private final Object inFlightLock = new Object();
+    private int inFlightTasks;
+
+    // Keeps received messages invisible while their tasks are in the pipeline
+    private final LeaseManager leases = LeaseManager.fromConfig(AwsConfig.QUEUE_MANAGER_TO_WORKER);
+
+    // Set by stop(), for a worker running in another component's JVM
+    private volatile boolean stopped;
 
     public static void main(String[] args) {
-        System.out.println("Worker started. Polling tasks...");
+        Log.info("Worker started with {} parser threads. Polling tasks...", WorkerConfig.PARSER_THREADS);
         WorkerMain worker = new WorkerMain();
         worker.run();
     }
 
+    /**
+     * Run a worker on a thread of this JVM (see InProcessComputeProvider); stop() ends it.
+     */
+    public static WorkerMain startInProcess(String threadName) {
+        WorkerMain worker = new WorkerMain();
+        Thread t = new Thread(worker::run, threadName);
+        t.setDaemon(true);
+        t.start();
+        Log.info("Worker {} started in process with {} parser threads", threadName, WorkerConfig.PARSER_THREADS);
+        return worker;
+    }
+
+    /**
+     * Stop receiving, drop the tasks in the pipeline and hand their messages back to the
+     * queue, like a worker process does when it is terminated.
+     */
+    public void stop() {
+        stopped = true;
+        downloadPool.shutdownNow();
+        parserPool.shutdownNow();
+        uploadPool.shutdownNow();
+        leases.releaseAll();
+    }
+
     private void run() {
-        while (true) {
-            handleTasks();
+        registerMetrics();
+        Metrics.serve(WorkerConfig.METRICS_PORT);
+
+        leases.start();
+        // On termination, give the tasks we hold to the other workers instead of letting them wait out the lease
+        Runtime.getRuntime().addShutdownHook(new Thread(leases::releaseAll, "lease-release"));
+
+        for (int i = 0; i < WorkerConfig.PARSER_THREADS; i++) {
+            parserPool.submit(this::parseLoop);
+        }
+        for (int i = 0; i < WorkerConfig.IO_THREADS; i++) {
+            uploadPool.submit(this::uploadLoop);
+        }
+
+        while (!stopped) {
             try {
-                Thread.sleep(300);
-            } catch (InterruptedException ignored) {}
+                handleTasks();
+            } catch (Exception e) {
+                Log.warn("Failed to receive tasks: {}", e.getMessage());
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ignored) {}
+            }
         }
     }
 
+    private void registerMetrics() {
+        String stage = "Time per document in each pipeline stage, ms";
+        Metrics.summary("worker_stage_ms{stage=\"download\"}", stage, DOWNLOAD_MS);
+        Metrics.summary("worker_stage_ms{stage=\"parse\"}", stage, PARSE_MS);
+        Metrics.summary("worker_stage_ms{stage=\"upload\"}", stage, UPLOAD_MS);
+
+        Metrics.gauge("worker_tasks_in_flight", "Tasks received and not yet reported", () -> {
+            synchronized (inFlightLock) {
+                return inFlightTasks;
+            }
+        });
+        Metrics.gauge("worker_parse_queue", "Downloaded tasks waiting for a parser thread", parseQueue::size);
+        Metrics.gauge("worker_upload_queue", "Parsed tasks waiting for an upload thread", uploadQueue::size);
+        Metrics.gauge("worker_parser_threads", "Parser threads", () -> WorkerConfig.PARSER_THREADS);
+
+        if (PARSE_CACHE != null) {
+            String lookups = "Sentence parse cache lookups, by result";
+            Metrics.counter("worker_parse_cache_lookups_total{result=\"hit\"}", lookups, PARSE_CACHE::hits);
+            Metrics.counter("worker_parse_cache_lookups_total{result=\"miss\"}", lookups, PARSE_CACHE::misses);
+            Metrics.counter("worker_parse_cache_bytes_saved_total", "Encoded parse tree bytes served from the parse cache",
+                    PARSE_CACHE::bytesSaved);
+        }
+
+        Metrics.gauge("worker_leases_held", "Task messages held invisible by this worker", leases::held);
+        Metrics.counter("worker_leases_extended_total", "Lease extensions", leases::extended);
+        Metrics.counter("worker_leases_released_total", "Messages handed back to the queue", leases::released);
+        Metrics.counter("worker_leases_redelivered_total", "Messages received more than once", leases::redelivered);
+        Metrics.counter("worker_leases_lost_total", "Leases that ran out before the message was done", leases::lost);
+        Metrics.counter("worker_leases_expired_total", "Messages given up after the longest lease", leases::expired);
+    }
+
+    /**
+     * Receive as many messages as the pipeline has room for (at most 10 per receive)
+     * and start downloading every task in them.
+     */
     private void handleTasks() {
+        int room;
+        try {
+            room = awaitRoom();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
         List<Message> messages = SqsUtils.receiveMessages(
                 AwsConfig.QUEUE_MANAGER_TO_WORKER,
-                1,
-                10
+                Math.min(room, WorkerConfig.MAX_MESSAGES_PER_RECEIVE),
+                10,
+                leases.leaseSeconds()
         );
 
-        if (messages.isEmpty()) return;
-
         for (Message m : messages) {
-            String body = m.body();
-
-            if (!body.contains("\"type\":\"ANALYSIS_TASK\"")) {
+            if (stopped) {
+                leases.release(m);
                 continue;
             }
+            try {
+                startMessage(m);
+            } catch (Exception e) {
+                // Let another worker try it now rather than after the lease
+                Log.warn("Failed to start message {}: {}", m.messageId(), e.getMessage());
+                leases.release(m);
+            }
+        }
+    }
 
-            AnalysisTaskMessage task = JsonUtils.fromJson(body, AnalysisTaskMessage.class);
-            System.out.println("Received task: job=" + task.jobId + " taskId=" + task.taskId
-                    + " type=" + task.analysisType);
+    /**
+     * Unpack one task message and start downloading every task in it.
+     */
+    private void startMessage(Message m) {
+        long receivedAt = System.currentTimeMillis();
+        Object message = MessageCodec.decode(m.body());
+
+        List<WorkItem> items = new ArrayList<>();
+
+        if (message instanceof TaskBundleMessage) {
+            TaskBundleMessage bundle = (TaskBundleMessage) message;
+            if (bundle.tasks == null && bundle.payloadKey != null) {
+                // The bundle was too big for SQS, the manager left it in S3
+                String payload = S3Utils.downloadStringIfExists(bundle.payloadBucket, bundle.payloadKey);
+                if (payload == null) {
+                    // The manager deletes it once the bundle's results are in, so this is a redelivery
+                    Log.info("Bundle {} of job {} is already done, dropping it", bundle.bundleId, bundle.jobId);
+                    SqsUtils.deleteMessage(AwsConfig.QUEUE_MANAGER_TO_WORKER, m);
+                    return;
+                }
+                bundle.tasks = MessageCodec.decode(payload, TaskBundleMessage.class).tasks;
+            }
+            Log.info("Received bundle: job={} bundleId={} tasks={}", bundle.jobId, bundle.bundleId, bundle.tasks.size());
+
+            InFlightMessage source = new InFlightMessage(m, bundle, bundle.tasks.size());
+            for (int i = 0; i < bundle.tasks.size(); i++) {
+                AnalysisTaskMessage task = bundle.tasks.get(i);
+                task.jobId = bundle.jobId;
+                task.resultBucket = bundle.resultBucket;
+                task.resultPrefix = bundle.resultPrefix;
+                items.add(new WorkItem(source, i, task));
+            }
+        } else if (message instanceof AnalysisTaskMessage) {
+            AnalysisTaskMessage task = (AnalysisTaskMessage) message;
+            Log.info("Received task: job={} taskId={} type={}", task.jobId, task.taskId, task.analysisType);
 
-            TaskDoneMessage response = processTask(task);
+            items.add(new WorkItem(new InFlightMessage(m, null, 1), 0, task));
+        } else {
+            return;
+        }
 
-            // Send TASK_DONE
-            String json = JsonUtils.toJson(response);
-            SqsUtils.sendMessage(AwsConfig.QUEUE_WORKER_TO_MANAGER, json);
+        for (WorkItem item : items) {
+            item.timings.enqueuedAt = item.source.bundle == null ? null : item.source.bundle.enqueuedAt;
+            item.timings.receivedAt = receivedAt;
+        }
+
+        leases.acquire(m);
+        synchronized (inFlightLock) {
+            inFlightTasks += items.size();
+        }
+        for (WorkItem item : items) {
+            downloadPool.submit(() -> download(item));
+        }
+    }
 
-            // Delete the original message
-            SqsUtils.deleteMessage(AwsConfig.QUEUE_MANAGER_TO_WORKER, m);
+    /**
+     * Wait until fewer than MAX_IN_FLIGHT tasks are in the pipeline and return the free room.
+     */
+    private int awaitRoom() throws InterruptedException {
+        synchronized (inFlightLock) {
+            while (inFlightTasks >= WorkerConfig.MAX_IN_FLIGHT) {
+                inFlightLock.wait();
+            }
+            return WorkerConfig.MAX_IN_FLIGHT - inFlightTasks;
         }
     }
 
-    private TaskDoneMessage processTask(AnalysisTaskMessage task) {
+    private void releaseInFlight() {
+        synchronized (inFlightLock) {
+            inFlightTasks--;
+            inFlightLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stage 1 (I/O): fetch the source document, then queue it for parsing.
+     * Blocks when parseQueue is full, which is what keeps prefetching bounded.
+     */
+    private void download(WorkItem item) {
+        long start = System.currentTimeMillis();
         try {
-            String tempInputPath = "/tmp/worker-" + task.jobId + "-" + task.taskId + ".txt";
-            String tempOutputPath = "/tmp/output-" + task.jobId + "-" + task.taskId + ".txt";
+            if (!abandoned(item)) {
+                if (item.task.sharded()) {
+                    downloadRangeToFile(item);
+                } else {
+                    downloadUrlToFile(item);
+                }
+                useCachedResult(item);
+            }
+        } catch (Exception e) {
+            item.fail(e);
+        }
+        item.timings.downloadMs = System.currentTimeMillis() - start;
+        DOWNLOAD_MS.record(item.timings.downloadMs);
+
+        try {
+            // Failed and fully cached tasks skip parsing
+            if (item.finished()) {
+                uploadQueue.put(item);
+            } else {
+                parseQueue.put(item);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stage 2 (CPU): one loop per parser thread.
+     */
+    private void parseLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WorkItem item;
+            try {
+                item = parseQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                if (!abandoned(item)) {
+                    parse(item);
+                }
+            } catch (Throwable t) {
+                // E.g. a StackOverflowError on a very deep tree: fail the item but keep the thread,
+                // and still hand the item on so it is reported and its slot and lease are released
+                Log.error("Parse of task {} failed: {}", item.task.taskId, t.toString());
+                item.fail(new RuntimeException("Parse failed: " + t, t));
+            }
+
+            try {
+                uploadQueue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
 
-            // 1. download source file
-            downloadUrlToFile(task.sourceUrl, tempInputPath);
+    /**
+     * Stage 3 (I/O): upload the result, report TASK_DONE and delete the task message.
+     */
+    private void uploadLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WorkItem item;
+            try {
+                item = uploadQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                upload(item);
+                report(item);
+            } catch (Exception e) {
+                Log.warn("Failed to report task {}: {}", item.task.taskId, e.getMessage());
+            } finally {
+                deleteTempFiles(item);
+                releaseInFlight();
+            }
+        }
+    }
+
+    /**
+     * Parse the document once and write every analysis still needed for it.
+     */
+    private void parse(WorkItem item) {
+        List<String> types = new ArrayList<>();
+        List<String> outputPaths = new ArrayList<>();
+        for (int i : item.pending()) {
+            String type = item.analyses.get(i).analysisType;
+            if (!Analyzers.isSupported(type)) {
+                // Don't let a bad line fail the other analyses of the same document
+                item.fail(i, new IllegalArgumentException("Unknown analysis type: " + type));
+                continue;
+            }
+            types.add(type);
+            outputPaths.add(item.outputPaths[i]);
+        }
 
-            // 2. run analysis
-            runAnalysis(task.analysisType, tempInputPath, tempOutputPath);
+        if (types.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            item.sentenceStats = runAnalyses(types, item.inputPath, outputPaths);
+            DOCUMENTS_PARSED.inc();
+            SENTENCES_PARSED.add(item.sentenceStats.sentences);
+            TOKENS_PARSED.add(item.sentenceStats.tokens);
+            if (item.sentenceStats.anyOverBudget()) {
+                Log.info("Task {}: {}", item.task.taskId, item.sentenceStats.describe());
+            }
+        } catch (Exception e) {
+            item.fail(e);
+        }
+        item.timings.parseMs = System.currentTimeMillis() - start;
+        PARSE_MS.record(item.timings.parseMs);
+
+        // Also on /metrics
+        if (PARSE_CACHE != null && Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug("Parse cache: {}", PARSE_CACHE.stats());
+        }
+    }
+
+    private void upload(WorkItem item) {
+        if (abandoned(item)) {
+            return;
+        }
+        // Skips analyses that failed or were answered from the result cache
+        List<Integer> pending = item.pending();
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
 
-            // 3. upload result to S3
+        // Start every output's upload before waiting for any of them
+        String[] resultKeys = new String[item.analyses.size()];
+        List<CompletableFuture<Void>> uploads = new ArrayList<>();
+        for (int i : pending) {
+            AnalysisTaskMessage task = item.analyses.get(i);
             String resultKey = task.resultPrefix + task.taskId + "-" +
                     task.analysisType.toLowerCase() + ".txt";
+            if (task.sharded()) {
+                // The manager stitches the parts into resultKey once all shards are done
+                resultKey += String.format(".part-%05d", task.shardIndex);
+            }
+            resultKeys[i] = resultKey;
+            uploads.add(S3Utils.uploadFileAsync(task.resultBucket, resultKey, item.outputPaths[i]));
+        }
 
-            S3Utils.uploadFile(task.resultBucket, resultKey, tempOutputPath);
-
-            // 4. success
-            return new TaskDoneMessage(
-                    task.jobId,
-                    task.taskId,
-                    task.analysisType,
-                    task.sourceUrl,
-                    true,
-                    task.resultBucket,
-                    resultKey,
-                    null
-            );
-            
+        for (int n = 0; n < pending.size(); n++) {
+            int i = pending.get(n);
+            try {
+                Futures.join(uploads.get(n));
+                item.succeed(i, resultKeys[i]);
+            } catch (Exception e) {
+                item.fail(i, e);
+                continue;
+            }
+
+            rememberResult(item, i);
+        }
+        item.timings.uploadMs = System.currentTimeMillis() - start;
+        UPLOAD_MS.record(item.timings.uploadMs);
+    }
+
+    /**
+     * If this exact document was already analyzed the same way, reuse that result instead of parsing.
+     */
+    private void useCachedResult(WorkItem item) {
+        // A shard is only part of a document; the manager caches the stitched result
+        if (RESULT_CACHE == null || item.task.sharded()) {
+            return;
+        }
+        for (int i : item.pending()) {
+            AnalysisTaskMessage task = item.analyses.get(i);
+            try {
+                CachedResult cached = RESULT_CACHE.get(ResultCache.contentKey(item.contentHash, task.analysisType));
+                if (cached == null) {
+                    RESULT_CACHE_MISSES.inc();
+                } else {
+                    RESULT_CACHE_HITS.inc();
+                    Log.info("Result cache hit: job={} taskId={}", task.jobId, task.taskId);
+                    item.succeedFromCache(i, cached.bucket, cached.key);
+                }
+            } catch (Exception e) {
+                // The cache is only an optimization, parse as usual
+                Log.warn("Result cache lookup failed: {}", e.getMessage());
+            }
+        }
+    }
 
+    /**
+     * Store a fresh result under the document's content hash, and under its URL + ETag
+     * so the manager can skip the task altogether next time.
+     */
+    private void rememberResult(WorkItem item, int i) {
+        if (RESULT_CACHE == null || item.task.sharded()) {
+            return;
+        }
+        // Chunked, skipped or out-of-time sentences depend on the governor's settings and
+        // on this machine's speed; a later job should get a clean parse, and its "Notes"
+        if (item.sentenceStats != null && item.sentenceStats.anyOverBudget()) {
+            return;
+        }
+        AnalysisTaskMessage task = item.analyses.get(i);
+        CachedResult result = new CachedResult(item.results[i].resultBucket, item.results[i].resultKey);
+        try {
+            RESULT_CACHE.put(ResultCache.contentKey(item.contentHash, task.analysisType), result);
+            if (item.etag != null) {
+                RESULT_CACHE.put(ResultCache.etagKey(task.sourceUrl, item.etag, task.analysisType), result);
+            }
         } catch (Exception e) {
-            System.out.println("Task failed: " + e.getMessage());
-            return new TaskDoneMessage(
-                    task.jobId,
-                    task.taskId,
-                    task.analysisType,
-                    task.sourceUrl,
-                    false,
-                    null,
-                    null,
-                    e.getMessage()
-            );
+            Log.warn("Result cache update failed: {}", e.getMessage());
         }
-        
     }
 
-    private void downloadUrlToFile(String urlStr, String localPath) throws Exception {
-        try (InputStream in = new URL(urlStr).openStream();
-             FileOutputStream out = new FileOutputStream(localPath)) {
+    /**
+     * Record the task's result. The last task of a message sends TASK_DONE
+     * (or BUNDLE_DONE for a bundle) and deletes the message.
+     */
+    private void report(WorkItem item) {
+        InFlightMessage source = item.source;
+        item.markSharedParse();
+        if (!source.complete(item.index, item.results())) {
+            return;
+        }
+        if (leases.forget(source.message) || stopped) {
+            // Handed back while we worked on it: the worker that has it now reports it
+            Log.warn("Dropping the results of message {}, it was handed back to the queue", source.message.messageId());
+            return;
+        }
+
+        List<TaskDoneMessage> results = source.results();
+        long now = System.currentTimeMillis();
+        for (TaskDoneMessage result : results) {
+            result.timings.reportedAt = now;
+            if (result.cacheHit) {
+                TASKS_CACHED.inc();
+            } else if (result.success) {
+                TASKS_SUCCEEDED.inc();
+            } else {
+                TASKS_FAILED.inc();
+            }
+        }
+        String body;
+        if (source.bundle == null && results.size() == 1) {
+            body = MessageCodec.encode(results.get(0));
+        } else {
+            // A bundle, or a single task with grouped analyses
+            BundleDoneMessage done = new BundleDoneMessage(
+                    item.task.jobId,
+                    source.bundle == null ? null : source.bundle.bundleId,
+                    results);
+            if (source.bundle != null) {
+                done.payloadBucket = source.bundle.payloadBucket;
+                done.payloadKey = source.bundle.payloadKey;
+            }
+            body = MessageCodec.encode(done);
+        }
+        try {
+            SqsUtils.sendMessage(AwsConfig.QUEUE_WORKER_TO_MANAGER, body);
+        } catch (RuntimeException e) {
+            // Nothing was reported, so let another worker redo the tasks
+            leases.release(source.message);
+            throw e;
+        }
+
+        // Delete the original message, without holding up the next report
+        SqsUtils.deleteMessageAsync(AwsConfig.QUEUE_MANAGER_TO_WORKER, source.message).whenComplete((v, e) -> {
+            // The results are reported either way; a redelivery is ignored by the manager
+            leases.complete(source.message);
+            if (e != null) {
+                Log.warn("Failed to delete message {}: {}", source.message.messageId(), Futures.unwrap(e).getMessage());
+            }
+        });
+        // Also on /metrics
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug("Leases: {}", leases.stats());
+        }
+    }
+
+    /**
+     * Fail what is left of the item if its message was given up for being held too long,
+     * or the worker was stopped, so its tasks don't run to the end here as well as on the
+     * worker that has it now.
+     */
+    private boolean abandoned(WorkItem item) {
+        if (!stopped && !leases.givenUp(item.source.message)) {
+            return false;
+        }
+        item.fail(new IllegalStateException("Message was held too long and handed back to the queue"));
+        return true;
+    }
+
+    private void deleteTempFiles(WorkItem item) {
+        new File(item.inputPath).delete();
+        for (String outputPath : item.outputPaths) {
+            new File(outputPath).delete();
+        }
+    }
+
+    /**
+     * Download the task's source document, hashing it on the way for the result cache.
+     */
+    private void downloadUrlToFile(WorkItem item) throws Exception {
+        URLConnection conn = new URL(item.task.sourceUrl).openConnection();
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+
+        try (InputStream in = new DigestInputStream(conn.getInputStream(), sha);
+             FileOutputStream out = new FileOutputStream(item.inputPath)) {
 
             byte[] buf = new byte[8192];
             int read;
@@ -138,65 +637,233 @@ public class WorkerMain {
                 out.write(buf, 0, read);
             }
         }
+
+        item.contentHash = HexFormat.of().formatHex(sha.digest());
+        item.etag = UrlProbe.strongEtag(conn.getHeaderField("ETag"));
     }
 
-    private void runAnalysis(String analysisType, String inputPath, String outputPath) throws Exception {
-        try (BufferedReader br = new BufferedReader(new FileReader(inputPath, StandardCharsets.UTF_8));
-             PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputPath), StandardCharsets.UTF_8))) {
+    /**
+     * Download the lines of a sharded document that start in [rangeStart, rangeEnd).
+     * The request starts one byte early to tell whether the shard begins on a line boundary,
+     * and is open-ended so the last line can be finished past rangeEnd; we stop reading there.
+     */
+    private void downloadRangeToFile(WorkItem item) throws Exception {
+        AnalysisTaskMessage task = item.task;
+        long start = task.rangeStart;
+        long end = task.rangeEnd;
+        long from = Math.max(0, start - 1);
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(task.sourceUrl).openConnection();
+        conn.setRequestProperty("Range", "bytes=" + from + "-");
+        if (task.etag != null) {
+            // Only the range of the version the manager split; otherwise the server sends it all
+            conn.setRequestProperty("If-Range", task.etag);
+        }
 
-            String line;
-            
-            while ((line = br.readLine()) != null) {
+        try (InputStream in = new BufferedInputStream(conn.getInputStream());
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(item.inputPath))) {
+
+            if (task.etag != null) {
+                // A full response to If-Range means the document changed; so does a different ETag
+                String etag = conn.getHeaderField("ETag");
+                boolean sameVersion = etag != null
+                        ? task.etag.equals(etag)
+                        : conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+                if (!sameVersion) {
+                    throw new IOException("Document changed since the job started (ETag " + etag
+                            + ", split as " + task.etag + ")");
+                }
+            }
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                // The server ignored the Range header and sent the whole document
+                in.skipNBytes(from);
+            }
+            long pos = from;
+            int b;
+
+            if (start > 0) {
+                // The line running into this shard belongs to the previous one
+                while ((b = in.read()) != -1) {
+                    pos++;
+                    if (b == '\n') {
+                        break;
+                    }
+                }
+            }
 
+            // Copy whole lines for as long as they start before rangeEnd
+            boolean atLineStart = true;
+            while (!(atLineStart && pos >= end) && (b = in.read()) != -1) {
+                out.write(b);
+                pos++;
+                atLineStart = b == '\n';
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
 
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
+    /**
+     * Parse every line of inputPath and write the requested analysis to outputPath.
+     * Safe to call from several threads at once: the shared PARSER is thread-safe.
+     */
+    public static void runAnalysis(String analysisType, String inputPath, String outputPath) throws Exception {
+        runAnalyses(List.of(analysisType), inputPath, List.of(outputPath));
+    }
 
-                // Treat each line as a sentence
-                List<HasWord> sentence = Sentence.toWordList(line.split("\\s+"));
-                Tree parse = PARSER.apply(sentence);
+    /**
+     * Read every line of inputPath once and write each requested analysis to the matching
+     * output path, using the engine configured for its type. Analyses that need the same
+     * parse tree or tagging share it.
+     *
+     * With SENTENCE_POOL, up to REORDER_WINDOW sentences are parsed in parallel and written
+     * back in file order as the oldest one finishes, so one long document uses every core
+     * while memory stays bounded by the window.
+     *
+     * Returns how many sentences went over the per-sentence budgets (see SentenceGovernor).
+     */
+    public static SentenceStats runAnalyses(List<String> analysisTypes, String inputPath, List<String> outputPaths) throws Exception {
+        return runAnalyses(analysisTypes, inputPath, outputPaths, SENTENCE_POOL);
+    }
 
-                if ("POS".equalsIgnoreCase(analysisType)) {
-                    writePos(parse, out);
-                } else if ("CONSTITUENCY".equalsIgnoreCase(analysisType)) {
-                    writeConstituency(parse, out);
-                } else if ("DEPENDENCY".equalsIgnoreCase(analysisType)) {
-                    writeDependency(parse, out);
-                } else {
-                    throw new IllegalArgumentException("Unknown analysis type: " + analysisType);
-                }
+    /**
+     * Same, with the given sentence pool; null parses sequentially on the calling thread.
+     */
+    public static SentenceStats runAnalyses(List<String> analysisTypes, String inputPath, List<String> outputPaths,
+                                            ExecutorService sentencePool) throws Exception {
+        SentenceGovernor.Report report = new SentenceGovernor.Report();
+        List<Analyzer> analyzers = new ArrayList<>();
+        for (String analysisType : analysisTypes) {
+            analyzers.add(Analyzers.forType(analysisType));
+        }
+
+        List<PrintWriter> outs = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(inputPath, StandardCharsets.UTF_8))) {
+            for (String outputPath : outputPaths) {
+                outs.add(new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputPath), StandardCharsets.UTF_8)));
+            }
 
-                out.println(); 
-                out.println();
+            // Sentences being parsed, oldest first
+            ArrayDeque<Future<String[]>> window = new ArrayDeque<>();
 
+            try {
+                String line;
+
+                while ((line = br.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+
+                    if (sentencePool == null) {
+                        write(analyze(analyzers, line, report), outs);
+                        continue;
+                    }
+
+                    if (window.size() >= WorkerConfig.REORDER_WINDOW) {
+                        write(awaitSentence(window.poll()), outs);
+                    }
+                    String sentence = line;
+                    window.add(sentencePool.submit(() -> analyze(analyzers, sentence, report)));
+                }
+
+                while (!window.isEmpty()) {
+                    write(awaitSentence(window.poll()), outs);
+                }
+            } finally {
+                // On failure, don't leave the rest of the document running on the pool
+                for (Future<String[]> f : window) {
+                    f.cancel(true);
+                }
+            }
+        } finally {
+            for (PrintWriter out : outs) {
+                out.close();
             }
         }
+        return report.toStats();
+    }
+
+    /**
+     * Every requested analysis of one line, each followed by the two blank lines between sentences.
+     */
+    private static String[] analyze(List<Analyzer> analyzers, String line, SentenceGovernor.Report report) {
+        // Treat each line as a sentence
+        return GOVERNOR.analyze(analyzers, line.split("\\s+"), report);
     }
 
-    private void writePos(Tree parse, PrintWriter out) {
-        List<TaggedWord> tagged = parse.taggedYield();
-        for (TaggedWord tw : tagged) {
-            out.print(tw.word());
-            out.print("/");
-            out.print(tw.tag());
-            out.print(" ");
+    private static void write(String[] texts, List<PrintWriter> outs) {
+        for (int i = 0; i < texts.length; i++) {
+            outs.get(i).print(texts[i]);
         }
-        out.println();
     }
 
-    private void writeConstituency(Tree parse, PrintWriter out) {
-        // Penn Treebank style LISP tree
-        out.println(parse.toString());
+    private static String[] awaitSentence(Future<String[]> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
     }
 
-    private void writeDependency(Tree parse, PrintWriter out) {
-        var gs = GSF.newGrammaticalStructure(parse);
-        Collection<TypedDependency> deps = gs.typedDependencies();
-        for (TypedDependency dep : deps) {
-            out.println(dep.toString());
+    /**
+     * PCFG-parse one sentence, or reuse its parse from the sentence cache.
+     */
+    static Tree parseSentence(String[] tokens) {
+        // Lines are already split on whitespace, so this is the normalized sentence
+        String key = PARSE_CACHE == null ? null : String.join(" ", tokens);
+        if (key != null) {
+            Tree cached = PARSE_CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        List<HasWord> sentence = Sentence.toWordList(tokens);
+        Tree parse = pcfgParse(sentence);
+        if (parse == null) {
+            // Not cached: the flat tree only stands in for this failure, a later parse may succeed
+            return ParserUtils.xTree(sentence);
+        }
+        if (key != null) {
+            PARSE_CACHE.put(key, parse);
         }
+        return parse;
     }
 
+    /**
+     * What PARSER.apply does, except that an interrupt from the SentenceGovernor's watchdog
+     * comes out as RuntimeInterruptedException, and a failed parse as null instead of a flat
+     * (X ...) tree.
+     */
+    private static Tree pcfgParse(List<HasWord> sentence) {
+        ParserQuery query = PARSER.parserQuery();
+        try {
+            if (query.parse(sentence)) {
+                return query.getBestParse();
+            }
+        } catch (RuntimeInterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            Log.warn("Parse failed, using a flat tree: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private static SentenceParseCache openParseCache() {
+        if (WorkerConfig.PARSE_CACHE_MB <= 0) {
+            return null;
+        }
+        try {
+            return new SentenceParseCache(Path.of(WorkerConfig.PARSE_CACHE_FILE),
+                    WorkerConfig.PARSE_CACHE_MB * 1024 * 1024, ResultCache.MODEL_VERSION);
+        } catch (IOException e) {
+            // The worker still works without it, just slower
+            Log.warn("Parse cache disabled: {}", e.getMessage());
+            return null;
+        }
+    }
 }